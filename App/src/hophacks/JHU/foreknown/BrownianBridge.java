@@ -0,0 +1,72 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Builds a Brownian path at times 1..n from n standard normals, terminal
+ * value first and then by repeated bisection (the construction used in
+ * QuantLib, after Jaeckel). The first normals fix the coarse shape of the
+ * path, which is what lets quasi-random points concentrate their
+ * uniformity where it matters.
+ */
+final class BrownianBridge {
+
+	private final int size;
+	private final int[] bridgeIndex;
+	private final int[] leftIndex;
+	private final int[] rightIndex;
+	private final double[] leftWeight;
+	private final double[] rightWeight;
+	private final double[] stdDev;
+
+	BrownianBridge(int size) {
+		this.size = size;
+		bridgeIndex = new int[size];
+		leftIndex = new int[size];
+		rightIndex = new int[size];
+		leftWeight = new double[size];
+		rightWeight = new double[size];
+		stdDev = new double[size];
+
+		// map[i] != 0 once point i has been given a normal; times are i + 1
+		int[] map = new int[size];
+		map[size - 1] = 1;
+		bridgeIndex[0] = size - 1;
+		stdDev[0] = Math.sqrt(size);
+		for (int j = 0, i = 1; i < size; i++) {
+			while (map[j] != 0) {
+				j++;
+			}
+			int k = j;
+			while (map[k] == 0) {
+				k++;
+			}
+			int l = j + ((k - 1 - j) >> 1);
+			map[l] = i;
+			bridgeIndex[i] = l;
+			leftIndex[i] = j;
+			rightIndex[i] = k;
+			double tl = j;
+			double tm = l + 1;
+			double tr = k + 1;
+			leftWeight[i] = (tr - tm) / (tr - tl);
+			rightWeight[i] = (tm - tl) / (tr - tl);
+			stdDev[i] = Math.sqrt((tm - tl) * (tr - tm) / (tr - tl));
+			j = k + 1;
+			if (j >= size) {
+				j = 0;
+			}
+		}
+	}
+
+	/** Writes W(1)..W(n) to w from the normals z, both of length n. */
+	void transform(double[] z, double[] w) {
+		w[size - 1] = stdDev[0] * z[0];
+		for (int i = 1; i < size; i++) {
+			int j = leftIndex[i];
+			int l = bridgeIndex[i];
+			// Left neighbour j - 1, or W(0) = 0 when j is the first point
+			double left = j == 0 ? 0 : w[j - 1];
+			w[l] = leftWeight[i] * left + rightWeight[i] * w[rightIndex[i]] + stdDev[i] * z[i];
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+package hophacks.JHU.foreknown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Price series stored as whole ticks of 1/scale, delta and zigzag encoded
+ * as varints in blocks of BLOCK_VALUES, with an index of block offsets so
+ * any block decodes on its own.
+ *
+ * Encoded layout, little-endian: the block count, one int offset per block
+ * counted from the start of the encoding, then the blocks. Each block holds
+ * its first value in full and then the difference to each next value, so a
+ * quiet daily series packs into one or two bytes per price.
+ */
+public class CompressedSeries {
+
+	public static final int BLOCK_VALUES = 1024;
+
+	private final ByteBuffer data;
+	private final byte[] array;
+	private final int arrayOffset;
+	private final int count;
+	private final double scale;
+
+	/**
+	 * Wraps an encoding of count values made by encode, starting at the
+	 * buffer's position. A mapped buffer is decoded in place.
+	 */
+	public CompressedSeries(ByteBuffer encoded, int count, double scale) {
+		this.data = encoded.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.count = count;
+		this.scale = scale;
+		// Heap buffers are decoded straight from their array
+		if (data.hasArray()) {
+			array = data.array();
+			arrayOffset = data.arrayOffset();
+		} else {
+			array = null;
+			arrayOffset = 0;
+		}
+		if (data.getInt(0) != getBlockCount()) {
+			throw new IllegalArgumentException("Encoding holds " + data.getInt(0) + " blocks, expected " + getBlockCount());
+		}
+	}
+
+	/**
+	 * Encodes values, which must be whole numbers of 1/scale ticks, into a
+	 * heap buffer positioned at zero.
+	 */
+	public static ByteBuffer encode(double[] values, double scale) {
+		int blocks = (values.length + BLOCK_VALUES - 1) / BLOCK_VALUES;
+		long[] ticks = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ticks[i] = SeriesFile.toTicks(values[i], scale);
+		}
+
+		// Size first, so the output is allocated once at its final length
+		int size = 4 + 4 * blocks;
+		for (int i = 0; i < ticks.length; i++) {
+			size += varintLength(zigzag(i % BLOCK_VALUES == 0 ? ticks[i] : ticks[i] - ticks[i - 1]));
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] bytes = out.array();
+		out.putInt(blocks);
+		int position = 4 + 4 * blocks;
+		for (int b = 0; b < blocks; b++) {
+			out.putInt(4 + 4 * b, position);
+			int start = b * BLOCK_VALUES;
+			int end = Math.min(start + BLOCK_VALUES, ticks.length);
+			position = putVarint(bytes, position, zigzag(ticks[start]));
+			for (int i = start + 1; i < end; i++) {
+				position = putVarint(bytes, position, zigzag(ticks[i] - ticks[i - 1]));
+			}
+		}
+		out.position(0);
+		return out;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getBlockCount() {
+		return (count + BLOCK_VALUES - 1) / BLOCK_VALUES;
+	}
+
+	/** Size of the encoding in bytes. */
+	public int getEncodedBytes() {
+		int blocks = getBlockCount();
+		return blocks == 0 ? 4 : blockEnd(blocks - 1);
+	}
+
+	/**
+	 * Decodes one block into out at off and returns how many values it
+	 * held: BLOCK_VALUES, or fewer for the last block.
+	 */
+	public int decodeBlock(int block, double[] out, int off) {
+		if (block < 0 || block >= getBlockCount()) {
+			throw new IndexOutOfBoundsException("Block " + block + " of " + getBlockCount());
+		}
+		int n = Math.min(BLOCK_VALUES, count - block * BLOCK_VALUES);
+		int position = data.getInt(4 + 4 * block);
+		long ticks = 0;
+		if (array != null) {
+			byte[] bytes = array;
+			int p = arrayOffset + position;
+			for (int i = 0; i < n; i++) {
+				long raw = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = bytes[p++];
+					raw |= (long) (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				ticks += (raw >>> 1) ^ -(raw & 1);
+				out[off + i] = ticks / scale;
+			}
+		} else {
+			int p = position;
+			for (int i = 0; i < n; i++) {
+				long raw = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data.get(p++);
+					raw |= (long) (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				ticks += (raw >>> 1) ^ -(raw & 1);
+				out[off + i] = ticks / scale;
+			}
+		}
+		return n;
+	}
+
+	/** One value; decodes its whole block, so prefer decodeBlock for runs. */
+	public double get(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+		}
+		double[] block = new double[BLOCK_VALUES];
+		decodeBlock(index / BLOCK_VALUES, block, 0);
+		return block[index % BLOCK_VALUES];
+	}
+
+	/** Decodes every value into a new array. */
+	public double[] toArray() {
+		double[] values = new double[count];
+		int blocks = getBlockCount();
+		for (int b = 0; b < blocks; b++) {
+			decodeBlock(b, values, b * BLOCK_VALUES);
+		}
+		return values;
+	}
+
+	private int blockEnd(int block) {
+		if (block + 1 < getBlockCount()) {
+			return data.getInt(4 + 4 * (block + 1));
+		}
+		// The last block runs to its final varint
+		int p = data.getInt(4 + 4 * block);
+		int n = count - block * BLOCK_VALUES;
+		for (int i = 0; i < n; i++) {
+			while (data.get(p++) < 0) {
+			}
+		}
+		return p;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static int varintLength(long value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	private static int putVarint(byte[] bytes, int position, long value) {
+		while ((value & ~0x7fL) != 0) {
+			bytes[position++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+		return position;
+	}
+
+}
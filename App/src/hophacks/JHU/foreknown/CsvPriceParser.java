@@ -0,0 +1,104 @@
+package hophacks.JHU.foreknown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming parser that pulls one numeric column out of CSV bytes.
+ *
+ * Bytes are pushed in with feed as they are read, in chunks of any size;
+ * lines and numbers may straddle chunks. Numbers are parsed in place from
+ * their digits, so no String is created per field. Lines whose column is
+ * missing or not a number, such as a header, are skipped.
+ */
+public class CsvPriceParser {
+
+	private final int column;
+	private final DoubleArray values = new DoubleArray();
+	private final NumberScanner number = new NumberScanner();
+
+	private int field;
+	private boolean lineHasValue;
+	private double lineValue;
+
+	/** Parser for the first column. */
+	public CsvPriceParser() {
+		this(0);
+	}
+
+	public CsvPriceParser(int column) {
+		this.column = column;
+	}
+
+	/** Parses the first column of a whole stream; the stream is not closed. */
+	public static double[] parse(InputStream in) throws IOException {
+		CsvPriceParser parser = new CsvPriceParser();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			parser.feed(buffer, 0, n);
+		}
+		return parser.finish();
+	}
+
+	public void feed(byte[] buffer, int off, int len) {
+		for (int end = off + len; off < end; off++) {
+			accept(buffer[off]);
+		}
+	}
+
+	/** Consumes the remaining bytes of buffer, which may be a mapped file. */
+	public void feed(ByteBuffer buffer) {
+		while (buffer.hasRemaining()) {
+			accept(buffer.get());
+		}
+	}
+
+	/** Ends the input and returns every value parsed, in order. */
+	public double[] finish() {
+		if (field > 0 || number.isStarted()) {
+			endLine();
+		}
+		return values.toArray();
+	}
+
+	private void accept(byte b) {
+		switch (b) {
+		case '\n':
+			endLine();
+			break;
+		case '\r':
+			break;
+		case ',':
+			endField();
+			field++;
+			break;
+		default:
+			if (field == column) {
+				number.accept(b);
+			}
+		}
+	}
+
+	private void endField() {
+		if (field != column) {
+			return;
+		}
+		if (number.isValid()) {
+			lineValue = number.value();
+			lineHasValue = true;
+		}
+		number.reset();
+	}
+
+	private void endLine() {
+		endField();
+		if (lineHasValue) {
+			values.add(lineValue);
+		}
+		lineHasValue = false;
+		field = 0;
+	}
+
+}
@@ -0,0 +1,268 @@
+package hophacks.JHU.foreknown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming parser that reads every column of a price CSV in one pass into
+ * a PriceSeries.
+ *
+ * A first line naming its columns (Date, Open, High, Low, Close, Adj Close,
+ * Volume, in any order and case) decides the layout; unknown columns are
+ * ignored. Without such a header a single column is taken as the close, two
+ * columns as Date, Close and wider lines as Date, Open, High, Low, Close,
+ * Volume. Dates may be
+ * yyyy-mm-dd, yyyymmdd or m/d/yyyy. Lines with no price or volume at all
+ * are skipped.
+ */
+public class CsvSeriesParser {
+
+	private static final int SKIP = -1;
+	private static final int DATE = -2;
+
+	private static final int[] POSITIONAL = {
+		DATE, PriceSeries.OPEN, PriceSeries.HIGH, PriceSeries.LOW, PriceSeries.CLOSE, PriceSeries.VOLUME
+	};
+	private static final int[] SINGLE = { PriceSeries.CLOSE };
+	private static final int[] DATED = { DATE, PriceSeries.CLOSE };
+
+	private final IntArray dates = new IntArray();
+	private final DoubleArray[] columns = new DoubleArray[PriceSeries.COLUMNS];
+	private final NumberScanner number = new NumberScanner();
+
+	// The first line is held back until it is known whether it is a header
+	private byte[] firstLine = new byte[256];
+	private int firstLength;
+	private boolean firstLineDone;
+	private int[] roles;
+
+	private int field;
+	private final double[] row = new double[PriceSeries.COLUMNS];
+	private boolean rowHasValue;
+	private int rowDate;
+
+	// Date fields are up to three numbers split by '-' or '/'
+	private final int[] dateParts = new int[3];
+	private final int[] dateDigits = new int[3];
+	private int datePart;
+	private boolean dateInvalid;
+
+	public CsvSeriesParser() {
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = new DoubleArray();
+		}
+		clearRow();
+	}
+
+	/** Parses a whole stream; the stream is not closed. */
+	public static PriceSeries parse(InputStream in) throws IOException {
+		CsvSeriesParser parser = new CsvSeriesParser();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			parser.feed(buffer, 0, n);
+		}
+		return parser.finish();
+	}
+
+	public void feed(byte[] buffer, int off, int len) {
+		int end = off + len;
+		while (!firstLineDone && off < end) {
+			holdFirstLine(buffer[off++]);
+		}
+		for (; off < end; off++) {
+			accept(buffer[off]);
+		}
+	}
+
+	/** Consumes the remaining bytes of buffer, which may be a mapped file. */
+	public void feed(ByteBuffer buffer) {
+		while (!firstLineDone && buffer.hasRemaining()) {
+			holdFirstLine(buffer.get());
+		}
+		while (buffer.hasRemaining()) {
+			accept(buffer.get());
+		}
+	}
+
+	/** Ends the input and returns the rows parsed, in order. */
+	public PriceSeries finish() {
+		if (!firstLineDone) {
+			endFirstLine();
+		}
+		if (field > 0 || number.isStarted() || datePart > 0 || dateDigits[0] > 0) {
+			endLine();
+		}
+		return new PriceSeries(dates.toArray(),
+				columns[PriceSeries.OPEN].toArray(),
+				columns[PriceSeries.HIGH].toArray(),
+				columns[PriceSeries.LOW].toArray(),
+				columns[PriceSeries.CLOSE].toArray(),
+				columns[PriceSeries.VOLUME].toArray());
+	}
+
+	private void holdFirstLine(byte b) {
+		if (b == '\n') {
+			endFirstLine();
+			return;
+		}
+		if (firstLength == firstLine.length) {
+			byte[] bigger = new byte[firstLength * 2];
+			System.arraycopy(firstLine, 0, bigger, 0, firstLength);
+			firstLine = bigger;
+		}
+		firstLine[firstLength++] = b;
+	}
+
+	private void endFirstLine() {
+		firstLineDone = true;
+		String[] names = new String(firstLine, 0, firstLength).split(",", -1);
+		roles = headerRoles(names);
+		if (roles == null) {
+			roles = names.length == 1 ? SINGLE : names.length == 2 ? DATED : POSITIONAL;
+			for (int i = 0; i < firstLength; i++) {
+				accept(firstLine[i]);
+			}
+			endLine();
+		}
+		firstLine = null;
+	}
+
+	/** Column roles named by a header, or null if the line is not one. */
+	private static int[] headerRoles(String[] names) {
+		int[] named = new int[names.length];
+		boolean any = false;
+		int close = -1, adjusted = -1;
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].replace("\"", "").trim().toLowerCase();
+			int role = SKIP;
+			if (name.equals("date") || name.equals("time") || name.equals("timestamp")) {
+				role = DATE;
+			} else if (name.equals("open")) {
+				role = PriceSeries.OPEN;
+			} else if (name.equals("high")) {
+				role = PriceSeries.HIGH;
+			} else if (name.equals("low")) {
+				role = PriceSeries.LOW;
+			} else if (name.equals("close") || name.equals("last") || name.equals("price")) {
+				close = i;
+			} else if (name.equals("adj close") || name.equals("adj_close") || name.equals("adjclose")) {
+				adjusted = i;
+			} else if (name.equals("volume")) {
+				role = PriceSeries.VOLUME;
+			}
+			named[i] = role;
+			any |= role != SKIP;
+		}
+		// The adjusted close stands in only when there is no plain close
+		int closeField = close >= 0 ? close : adjusted;
+		if (closeField >= 0) {
+			named[closeField] = PriceSeries.CLOSE;
+			any = true;
+		}
+		return any ? named : null;
+	}
+
+	private void accept(byte b) {
+		switch (b) {
+		case '\n':
+			endLine();
+			break;
+		case '\r':
+			break;
+		case ',':
+			endField();
+			field++;
+			break;
+		default:
+			int role = field < roles.length ? roles[field] : SKIP;
+			if (role == DATE) {
+				acceptDate(b);
+			} else if (role != SKIP) {
+				number.accept(b);
+			}
+		}
+	}
+
+	private void acceptDate(byte b) {
+		if (b >= '0' && b <= '9') {
+			if (dateDigits[datePart] < 9) {
+				dateParts[datePart] = dateParts[datePart] * 10 + (b - '0');
+			}
+			dateDigits[datePart]++;
+		} else if ((b == '-' || b == '/') && datePart < 2 && dateDigits[datePart] > 0) {
+			datePart++;
+		} else if (b != ' ' && b != '"') {
+			dateInvalid = true;
+		}
+	}
+
+	private void endField() {
+		int role = field < roles.length ? roles[field] : SKIP;
+		if (role == DATE) {
+			rowDate = dateValue();
+			datePart = 0;
+			dateInvalid = false;
+			for (int i = 0; i < 3; i++) {
+				dateParts[i] = dateDigits[i] = 0;
+			}
+		} else if (role != SKIP) {
+			if (number.isValid()) {
+				row[role] = number.value();
+				rowHasValue = true;
+			}
+			number.reset();
+		}
+	}
+
+	/** The date field as yyyymmdd, or 0 if it is not a recognised date. */
+	private int dateValue() {
+		if (dateInvalid) {
+			return 0;
+		}
+		if (datePart == 0) {
+			return dateDigits[0] == 8 ? dateParts[0] : 0;
+		}
+		if (datePart != 2) {
+			return 0;
+		}
+		int year, month, day;
+		if (dateDigits[0] == 4) {
+			year = dateParts[0];
+			month = dateParts[1];
+			day = dateParts[2];
+		} else if (dateDigits[2] == 4) {
+			month = dateParts[0];
+			day = dateParts[1];
+			year = dateParts[2];
+		} else {
+			return 0;
+		}
+		if (month < 1 || month > 12 || day < 1 || day > 31) {
+			return 0;
+		}
+		return year * 10000 + month * 100 + day;
+	}
+
+	private void endLine() {
+		endField();
+		if (rowHasValue) {
+			dates.add(rowDate);
+			for (int c = 0; c < row.length; c++) {
+				columns[c].add(row[c]);
+			}
+		}
+		clearRow();
+		field = 0;
+	}
+
+	private void clearRow() {
+		for (int c = 0; c < row.length; c++) {
+			row[c] = Double.NaN;
+		}
+		rowHasValue = false;
+		rowDate = 0;
+	}
+
+}
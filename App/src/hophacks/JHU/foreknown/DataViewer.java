@@ -1,63 +1,26 @@
 package hophacks.JHU.foreknown;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
-
-import android.content.res.AssetManager;
 import android.os.Bundle;
 import android.support.v7.app.ActionBarActivity;
 import android.widget.Button;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
-public class DataViewer extends ActionBarActivity {
+public class DataViewer extends ActionBarActivity implements ForecastTask.Listener {
 	
+	private LinearLayout buttonGraph;
+	private ProgressBar placeholder;
+	private plot2d graph;
+	private ForecastTask task;
+	private boolean retaining;
 
 	/** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
-    	
-    	double[] prevData = null;
-    	try{
-    		prevData = readAndInsert("2013r.csv");
-    	} catch (UnsupportedEncodingException e) {
-    		e.printStackTrace();
-    		System.out.println("FLIP A SHIT AND RUN OUT OF THE ROOM");
-    	}
-    	
-    	double[] newDataDouble = null;
-    	float[] newData = null;
-    	
-    	if (prevData == null) {
-    		System.out.println("WE GOTS NO DATA CAP'N");
-    		throw new NullPointerException();
-    	} else {
-    		newDataDouble = PredictionMath.predict(prevData);
-    		newData = new float[newDataDouble.length];
-    		for(int j = 0; j < newDataDouble.length;j++) {
-    			newData[j] = (float) newDataDouble[j];
-    		}
-    	}
-    	
-    	float[] totalData = new float[prevData.length + newData.length];
-    	
-    	for(int q = 0; q < prevData.length; q++) {
-    		totalData[q] = (float) prevData[q];
-    	}
-    	
-    	for(int l = 0; l < newData.length; l++) {
-    		totalData[prevData.length + l] = newData[l];
-    	}
-    	
     	super.onCreate(savedInstanceState);
         
-        LinearLayout buttonGraph = new LinearLayout(this);
+        buttonGraph = new LinearLayout(this);
         buttonGraph.setOrientation(LinearLayout.VERTICAL);
         
         LinearLayout buttons = new LinearLayout(this);
@@ -72,9 +35,54 @@ public class DataViewer extends ActionBarActivity {
         buttons.addView(FiftyDayHigh, lp);
         buttonGraph.addView(buttons, lp);
         
+        // Stands in for the graph while the history loads and the forecast runs
+        placeholder = new ProgressBar(this);
+        placeholder.setIndeterminate(true);
+        buttonGraph.addView(placeholder, lp);
+
+        setContentView(buttonGraph);
+        
+        // After a rotation, pick up the previous instance's task where it is
+        task = (ForecastTask) getLastCustomNonConfigurationInstance();
+        if (task == null) {
+        	String ticker = getIntent().getStringExtra(MainActivity.EXTRA_MESSAGE);
+        	task = new ForecastTask(new SeriesLoader(this), ticker);
+        	task.start();
+        }
+        task.attach(this);
+    }
+    
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+    	retaining = true;
+    	return task;
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	if (retaining) {
+    		task.detach();
+    	} else {
+    		task.cancel();
+    	}
+    	super.onDestroy();
+    }
+    
+    public void onForecast(double[] prevData, ForecastBands forecast, boolean finished) {
+    	double[] newDataDouble = forecast.getMean();
+    	float[] totalData = new float[prevData.length + newDataDouble.length];
+    	
+    	for(int q = 0; q < prevData.length; q++) {
+    		totalData[q] = (float) prevData[q];
+    	}
+    	
+    	for(int l = 0; l < newDataDouble.length; l++) {
+    		totalData[prevData.length + l] = (float) newDataDouble[l];
+    	}
+        
         float[] days = new float[totalData.length];
         for(int k = 0; k < totalData.length; k++) {
-        	days[k] = Float.parseFloat(Integer.toString(k));
+        	days[k] = k;
         }
         
         float[] xvalues = days;
@@ -82,54 +90,36 @@ public class DataViewer extends ActionBarActivity {
 
         int color = prevData.length;
         
-        plot2d graph = new plot2d(this, xvalues, yvalues, 1, color);
-        
-        buttonGraph.addView(graph, lp);
-
-        setContentView(buttonGraph);
-        
+        if (graph == null) {
+        	graph = new plot2d(this, xvalues, yvalues, 1, color);
+        	buttonGraph.removeView(placeholder);
+        	LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT);
+        	buttonGraph.addView(graph, lp);
+        } else {
+        	graph.setData(xvalues, yvalues, color);
+        }
+        // Outermost percentiles, continuing from the last known price
+        graph.setBands(toBand(prevData, forecast.getBand(0)),
+        		toBand(prevData, forecast.getBand(forecast.getPercentiles().length - 1)));
     }
     
-    private double[] readAndInsert(String csvSource) throws UnsupportedEncodingException {
-
-    	ArrayList<String> objList= new ArrayList<String>();
-    	AssetManager assetManager = getAssets();
-    	InputStream is = null;
-
-    	try {
-            is = assetManager.open(csvSource);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        BufferedReader reader = null;
-        reader = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-
-        String line = "";
-        StringTokenizer st = null;
-        try {
-
-            while ((line = reader.readLine()) != null) {
-                st = new StringTokenizer(line, ",");
-                String obj= new String ();
-                                //your attributes
-                obj = st.nextToken();
-
-                objList.add(obj);
-
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        double[] data = new double[objList.size()];
-        
-        for(int i = 0; i < objList.size(); i++) {
-        	data[i] = Double.parseDouble(objList.get(i));
-        	System.out.println(objList.get(i));
-        }
-        
-        return data;
-	}
+    private static float[] toBand(double[] prevData, double[] band) {
+    	float[] points = new float[band.length + 1];
+    	points[0] = (float) prevData[prevData.length - 1];
+    	for (int i = 0; i < band.length; i++) {
+    		points[i + 1] = (float) band[i];
+    	}
+    	return points;
+    }
+    
+    public void onError(Exception e) {
+    	e.printStackTrace();
+    	buttonGraph.removeView(placeholder);
+    	TextView message = new TextView(this);
+    	String ticker = task.getTicker() == null ? "" : task.getTicker().trim();
+    	message.setText(ticker.length() == 0 ? "No price data could be loaded."
+    			: "No price data could be loaded for " + ticker + ".");
+    	buttonGraph.addView(message);
+    }
 
 }
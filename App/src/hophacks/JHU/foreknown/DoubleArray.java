@@ -0,0 +1,48 @@
+package hophacks.JHU.foreknown;
+
+/** Growable list of primitive doubles. */
+public class DoubleArray {
+
+	private double[] values;
+	private int size;
+
+	public DoubleArray() {
+		this(256);
+	}
+
+	public DoubleArray(int capacity) {
+		values = new double[Math.max(capacity, 1)];
+	}
+
+	public void add(double value) {
+		if (size == values.length) {
+			double[] bigger = new double[size * 2];
+			System.arraycopy(values, 0, bigger, 0, size);
+			values = bigger;
+		}
+		values[size++] = value;
+	}
+
+	public double get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/** Copy of the values, sized exactly. */
+	public double[] toArray() {
+		double[] copy = new double[size];
+		System.arraycopy(values, 0, copy, 0, size);
+		return copy;
+	}
+
+}
@@ -0,0 +1,93 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Per-step summary of a forecast: the mean path plus one band for each
+ * requested percentile. Step k holds the price k + 1 steps after the last
+ * known price.
+ */
+public class ForecastBands {
+
+	private final double[] percentiles;
+	private final double[] mean;
+	private final double[][] bands;
+	private final int paths;
+	private final double[] meanError;
+	private final double[][] bandError;
+
+	public ForecastBands(double[] percentiles, double[] mean, double[][] bands, int paths) {
+		this(percentiles, mean, bands, paths, null, null);
+	}
+
+	public ForecastBands(double[] percentiles, double[] mean, double[][] bands, int paths,
+			double[] meanError, double[][] bandError) {
+		this.percentiles = percentiles;
+		this.mean = mean;
+		this.bands = bands;
+		this.paths = paths;
+		this.meanError = meanError;
+		this.bandError = bandError;
+	}
+
+	public int getHorizon() {
+		return mean.length;
+	}
+
+	/** Number of simulated paths behind the bands, or 0 if they are exact. */
+	public int getPaths() {
+		return paths;
+	}
+
+	public double[] getPercentiles() {
+		return percentiles;
+	}
+
+	public double[] getMean() {
+		return mean;
+	}
+
+	/** Band for percentiles[index], one value per step. */
+	public double[] getBand(int index) {
+		return bands[index];
+	}
+
+	/**
+	 * Standard error of the mean at each step, or null if the bands were not
+	 * simulated. NaN where too few paths were run to estimate it.
+	 */
+	public double[] getMeanError() {
+		return meanError;
+	}
+
+	/** Standard error of getBand(index), or null if the bands were not simulated. */
+	public double[] getBandError(int index) {
+		return bandError == null ? null : bandError[index];
+	}
+
+	/**
+	 * Widest 95% confidence half-width over every step of the mean and the
+	 * bands, relative to the value it belongs to. 0 for exact bands, infinite
+	 * if some error could not be estimated.
+	 */
+	public double getRelativeHalfWidth() {
+		if (meanError == null) {
+			return 0;
+		}
+		double worst = relativeHalfWidth(mean, meanError, 0);
+		for (int j = 0; j < bands.length; j++) {
+			worst = relativeHalfWidth(bands[j], bandError[j], worst);
+		}
+		return worst;
+	}
+
+	private static double relativeHalfWidth(double[] values, double[] errors, double worst) {
+		for (int k = 0; k < values.length; k++) {
+			double width = 1.96 * errors[k] / Math.abs(values[k]);
+			if (Double.isNaN(width)) {
+				return Double.POSITIVE_INFINITY;
+			}
+			worst = Math.max(worst, width);
+		}
+		return worst;
+	}
+
+}
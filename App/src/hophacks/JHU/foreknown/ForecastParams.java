@@ -0,0 +1,109 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Mutable inputs for the single-path kernel, PredictionMath.predict(params,
+ * rng, out). The model constants are per sample interval of the source
+ * data, as in GbmModel, and dt is the length of one forecast step in those
+ * intervals. The per-step drift and volatility are worked out whenever a
+ * setter runs, so the kernel only multiplies and adds.
+ *
+ * One instance can be refitted and reused across a whole universe of
+ * series without allocating.
+ */
+public class ForecastParams {
+
+	private int horizon = 252;
+	private double dt = 1;
+	private double s0;
+	private double mu;
+	private double sigma;
+
+	private double stepDrift;
+	private double stepVolatility;
+
+	private final ReturnStats stats = new ReturnStats();
+
+	public int getHorizon() {
+		return horizon;
+	}
+
+	/** Number of steps to forecast. */
+	public ForecastParams setHorizon(int horizon) {
+		if (horizon < 1) {
+			throw new IllegalArgumentException("horizon must be positive, got " + horizon);
+		}
+		this.horizon = horizon;
+		return this;
+	}
+
+	public double getDt() {
+		return dt;
+	}
+
+	public ForecastParams setDt(double dt) {
+		if (!(dt > 0)) {
+			throw new IllegalArgumentException("dt must be positive, got " + dt);
+		}
+		this.dt = dt;
+		update();
+		return this;
+	}
+
+	public double getS0() {
+		return s0;
+	}
+
+	public double getMu() {
+		return mu;
+	}
+
+	public double getSigma() {
+		return sigma;
+	}
+
+	public ForecastParams setModel(double s0, double mu, double sigma) {
+		this.s0 = s0;
+		this.mu = mu;
+		this.sigma = sigma;
+		update();
+		return this;
+	}
+
+	public ForecastParams setModel(GbmModel model) {
+		return setModel(model.getS0(), model.getMu(), model.getSigma());
+	}
+
+	/**
+	 * Fits the model to prices in one pass through the same ReturnStats as
+	 * GbmModel.fromPrices, reused so nothing is allocated.
+	 */
+	public ForecastParams fit(double[] prices) {
+		if (prices.length < 3) {
+			throw new IllegalArgumentException("Need at least 3 prices, got " + prices.length);
+		}
+		stats.reset();
+		for (int i = 0; i < prices.length; i++) {
+			stats.append(prices[i]);
+		}
+		return setModel(stats.getLastPrice(), stats.getMean(), Math.sqrt(stats.getVariance()));
+	}
+
+	double getStepDrift() {
+		return stepDrift;
+	}
+
+	double getStepVolatility() {
+		return stepVolatility;
+	}
+
+	/** Model with mu and sigma rescaled to one forecast step, for MonteCarloEngine. */
+	public GbmModel toStepModel() {
+		return new GbmModel(s0, stepDrift, stepVolatility);
+	}
+
+	private void update() {
+		stepDrift = mu * dt;
+		stepVolatility = sigma * Math.sqrt(dt);
+	}
+
+}
@@ -0,0 +1,172 @@
+package hophacks.JHU.foreknown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Loads a ticker's history and forecasts it on a background thread, then
+ * hands both to a listener on the main thread.
+ *
+ * The forecast is the model's closed-form bands, which are exact for a
+ * GbmModel, so they arrive in one go as soon as the history is loaded;
+ * simulating the same model would only estimate them with noise. The
+ * result is cached, so a later task for the same data delivers it at once.
+ *
+ * A task outlives the activity that started it: the activity detaches on
+ * a configuration change and the next one attaches, at once receiving the
+ * latest result while the work carries on.
+ *
+ * All tasks share one low-priority worker, so they never compete with the
+ * UI thread or with each other. Once cancelled a task delivers nothing.
+ */
+public class ForecastTask implements Runnable {
+
+	/** Called on the main thread. */
+	public interface Listener {
+		/** Called with each result; finished is true for the last. */
+		void onForecast(double[] history, ForecastBands forecast, boolean finished);
+
+		void onError(Exception e);
+	}
+
+	public static final int HORIZON = 252;
+
+	private static ExecutorService executor;
+
+	private final SeriesLoader loader;
+	private final String ticker;
+	private final Handler main = new Handler(Looper.getMainLooper());
+
+	private volatile boolean cancelled;
+	private Future<?> future;
+
+	// Only touched on the main thread
+	private Listener listener;
+	private double[] history;
+	private ForecastBands forecast;
+	private boolean finished;
+	private Exception error;
+
+	public ForecastTask(SeriesLoader loader, String ticker) {
+		this.loader = loader;
+		this.ticker = ticker;
+	}
+
+	/**
+	 * Sends results to listener from now on, starting with the latest one
+	 * if any has arrived. Call on the main thread.
+	 */
+	public void attach(Listener listener) {
+		this.listener = listener;
+		if (error != null) {
+			listener.onError(error);
+		} else if (forecast != null) {
+			listener.onForecast(history, forecast, finished);
+		}
+	}
+
+	/** Holds results back until the next attach, without stopping the work. */
+	public void detach() {
+		listener = null;
+	}
+
+	public String getTicker() {
+		return ticker;
+	}
+
+	/** Queues the task on the background worker. */
+	public void start() {
+		future = getExecutor().submit(this);
+	}
+
+	/** Stops the task if it is still running and drops any undelivered result. */
+	public void cancel() {
+		cancelled = true;
+		if (future != null) {
+			future.cancel(true);
+		}
+		main.removeCallbacksAndMessages(null);
+	}
+
+	public void run() {
+		try {
+			String source = loader.getSource(ticker);
+			long version = loader.getVersion(source);
+			double[] history = loader.load(source, version);
+			SeriesCache cache = loader.getCache();
+			ForecastBands cached = cache.getForecast(source, version);
+			if (cached != null) {
+				deliver(history, cached, true);
+				return;
+			}
+
+			// The closed form is exact for the model, so there is nothing to refine
+			GbmModel model = GbmModel.fromPrices(history);
+			ForecastBands bands = model.bands(HORIZON, MonteCarloEngine.DEFAULT_PERCENTILES);
+			cache.putForecast(source, version, bands);
+			deliver(history, bands, true);
+		} catch (final Exception e) {
+			// Interrupting a cancelled run surfaces here too, but is never delivered
+			post(new Runnable() {
+				public void run() {
+					error = e;
+					if (listener != null) {
+						listener.onError(e);
+					}
+				}
+			});
+		}
+	}
+
+	private void deliver(final double[] history, final ForecastBands forecast, final boolean finished) {
+		post(new Runnable() {
+			public void run() {
+				ForecastTask.this.history = history;
+				ForecastTask.this.forecast = forecast;
+				ForecastTask.this.finished = finished;
+				if (listener != null) {
+					listener.onForecast(history, forecast, finished);
+				}
+			}
+		});
+	}
+
+	private void post(final Runnable delivery) {
+		if (cancelled) {
+			return;
+		}
+		main.post(new Runnable() {
+			public void run() {
+				// Checked again here, since cancel may come while this waits in the queue
+				if (!cancelled) {
+					delivery.run();
+				}
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "foreknown-forecast");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+}
@@ -0,0 +1,83 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Geometric Brownian motion fitted to a price history. Each step of the
+ * model is S(t+1) = S(t) * exp(mu + sigma * Z) with Z standard normal, so
+ * mu and sigma are the mean and standard deviation of the log returns,
+ * measured per sample interval of the source data.
+ */
+public class GbmModel {
+
+	private final double s0;
+	private final double mu;
+	private final double sigma;
+
+	public GbmModel(double s0, double mu, double sigma) {
+		this.s0 = s0;
+		this.mu = mu;
+		this.sigma = sigma;
+	}
+
+	/** Fits the model to a price series, starting from its last price. */
+	public static GbmModel fromPrices(double[] prices) {
+		if (prices.length < 3) {
+			throw new IllegalArgumentException("Need at least 3 prices, got " + prices.length);
+		}
+
+		ReturnStats stats = new ReturnStats();
+		for (int i = 0; i < prices.length; i++) {
+			stats.append(prices[i]);
+		}
+		return stats.toModel();
+	}
+
+	/** Expected price the given number of steps ahead. */
+	public double expectedPrice(int steps) {
+		return s0 * Math.exp(steps * (mu + 0.5 * sigma * sigma));
+	}
+
+	/** Price the given number of steps ahead that is exceeded with probability 1 - p. */
+	public double priceQuantile(int steps, double p) {
+		return s0 * Math.exp(steps * mu + sigma * Math.sqrt(steps) * NormalDistribution.inverseCdf(p));
+	}
+
+	/**
+	 * Bands in closed form: under GBM the log price k steps ahead is normal
+	 * with mean k * mu and variance k * sigma^2, so no paths are needed.
+	 */
+	public ForecastBands bands(int horizon, double[] percentiles) {
+		double[] mean = new double[horizon];
+		double[][] bands = new double[percentiles.length][horizon];
+
+		double meanGrowth = Math.exp(mu + 0.5 * sigma * sigma);
+		double m = s0;
+		for (int k = 0; k < horizon; k++) {
+			m *= meanGrowth;
+			mean[k] = m;
+		}
+
+		double logS0 = Math.log(s0);
+		for (int j = 0; j < percentiles.length; j++) {
+			double z = sigma * NormalDistribution.inverseCdf(percentiles[j]);
+			double[] band = bands[j];
+			for (int k = 0; k < horizon; k++) {
+				band[k] = Math.exp(logS0 + (k + 1) * mu + z * Math.sqrt(k + 1));
+			}
+		}
+
+		return new ForecastBands(percentiles.clone(), mean, bands, 0);
+	}
+
+	public double getS0() {
+		return s0;
+	}
+
+	public double getMu() {
+		return mu;
+	}
+
+	public double getSigma() {
+		return sigma;
+	}
+
+}
@@ -0,0 +1,48 @@
+package hophacks.JHU.foreknown;
+
+/** Growable list of primitive ints. */
+public class IntArray {
+
+	private int[] values;
+	private int size;
+
+	public IntArray() {
+		this(256);
+	}
+
+	public IntArray(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == values.length) {
+			int[] bigger = new int[size * 2];
+			System.arraycopy(values, 0, bigger, 0, size);
+			values = bigger;
+		}
+		values[size++] = value;
+	}
+
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/** Copy of the values, sized exactly. */
+	public int[] toArray() {
+		int[] copy = new int[size];
+		System.arraycopy(values, 0, copy, 0, size);
+		return copy;
+	}
+
+}
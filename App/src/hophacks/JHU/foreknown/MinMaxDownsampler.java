@@ -0,0 +1,74 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Thins a series for drawing: within each pixel column only the lowest and
+ * highest points are kept, in their original order, along with the first
+ * and last point. A line through what is kept reaches every peak and
+ * trough of the full series, from about two points per column however
+ * many points the series has.
+ */
+final class MinMaxDownsampler {
+
+	private MinMaxDownsampler() {
+	}
+
+	/** Most indices select can write for one range. */
+	static int capacity(int columns) {
+		return 2 * columns + 8;
+	}
+
+	/**
+	 * Writes to out, from outOff, the indices kept from points from to to
+	 * (exclusive) and returns the offset after the last one. Point i lies at
+	 * x[xFrom + i], y[i]; x must not decrease, and minx to maxx spans the
+	 * columns.
+	 */
+	static int select(float[] x, int xFrom, float[] y, int from, int to, float minx, float maxx,
+			int columns, int[] out, int outOff) {
+		int n = outOff;
+		if (to - from <= 2 * columns) {
+			for (int i = from; i < to; i++) {
+				out[n++] = i;
+			}
+			return n;
+		}
+
+		float perColumn = columns / (maxx - minx);
+		int column = Integer.MIN_VALUE;
+		int lo = -1, hi = -1;
+		out[n++] = from;
+		for (int i = from; i < to; i++) {
+			int c = (int) ((x[xFrom + i] - minx) * perColumn);
+			if (c != column) {
+				n = flush(lo, hi, out, n);
+				column = c;
+				lo = hi = i;
+			} else if (y[i] < y[lo]) {
+				lo = i;
+			} else if (y[i] > y[hi]) {
+				hi = i;
+			}
+		}
+		n = flush(lo, hi, out, n);
+		if (out[n - 1] != to - 1) {
+			out[n++] = to - 1;
+		}
+		return n;
+	}
+
+	private static int flush(int lo, int hi, int[] out, int n) {
+		if (lo < 0) {
+			return n;
+		}
+		int first = Math.min(lo, hi), second = Math.max(lo, hi);
+		// The range's first point may already be out
+		if (out[n - 1] != first) {
+			out[n++] = first;
+		}
+		if (second != first) {
+			out[n++] = second;
+		}
+		return n;
+	}
+
+}
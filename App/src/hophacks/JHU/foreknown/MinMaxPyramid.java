@@ -0,0 +1,100 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Min/max levels over a series, like the mipmaps of a texture: level L
+ * holds, for each run of 2^L points, the index of its lowest and highest
+ * point. Any window can then be drawn from the level nearest one bucket per
+ * pixel column, at a cost set by the view width rather than the window:
+ * only the two buckets cut by the window's edges are scanned point by point.
+ */
+final class MinMaxPyramid {
+
+	private final float[] y;
+	// minIndex[L - 1] and maxIndex[L - 1] belong to level L; level 0 is y itself
+	private final int[][] minIndex, maxIndex;
+
+	MinMaxPyramid(float[] y) {
+		this.y = y;
+		int levels = 0;
+		for (int buckets = y.length; buckets > 1; buckets = (buckets + 1) / 2) {
+			levels++;
+		}
+		minIndex = new int[levels][];
+		maxIndex = new int[levels][];
+
+		int[] childMin = null, childMax = null;
+		int children = y.length;
+		for (int level = 0; level < levels; level++) {
+			int buckets = (children + 1) / 2;
+			int[] mins = new int[buckets], maxs = new int[buckets];
+			for (int b = 0; b < buckets; b++) {
+				int left = 2 * b, right = Math.min(2 * b + 1, children - 1);
+				int lo = childMin == null ? left : childMin[left], hi = childMax == null ? left : childMax[left];
+				int otherLo = childMin == null ? right : childMin[right], otherHi = childMax == null ? right : childMax[right];
+				mins[b] = y[otherLo] < y[lo] ? otherLo : lo;
+				maxs[b] = y[otherHi] > y[hi] ? otherHi : hi;
+			}
+			minIndex[level] = mins;
+			maxIndex[level] = maxs;
+			childMin = mins;
+			childMax = maxs;
+			children = buckets;
+		}
+	}
+
+	/** Most indices select can write for one window. */
+	static int capacity(int columns) {
+		return 2 * columns + 8;
+	}
+
+	/**
+	 * Writes to out, from outOff, the indices to draw for points from to to
+	 * (exclusive) across the given number of columns, and returns the offset
+	 * after the last one. The first and last point are always kept; between
+	 * them come the lowest and highest point of each bucket, in order.
+	 */
+	int select(int from, int to, int columns, int[] out, int outOff) {
+		int n = outOff;
+		if (to - from <= 2 * columns) {
+			for (int i = from; i < to; i++) {
+				out[n++] = i;
+			}
+			return n;
+		}
+
+		// The coarsest level still has no more buckets in the window than columns
+		int level = 1;
+		while (level < minIndex.length && ((to - from + (1 << level) - 1) >> level) > columns) {
+			level++;
+		}
+		int[] mins = minIndex[level - 1], maxs = maxIndex[level - 1];
+		out[n++] = from;
+		for (int b = from >> level, last = (to - 1) >> level; b <= last; b++) {
+			int lo = mins[b], hi = maxs[b];
+			int start = b << level, end = start + (1 << level);
+			if (start < from || end > to) {
+				// A bucket cut by the window edge is scanned over the part inside
+				lo = hi = Math.max(start, from);
+				for (int i = lo + 1, stop = Math.min(end, to); i < stop; i++) {
+					if (y[i] < y[lo]) {
+						lo = i;
+					} else if (y[i] > y[hi]) {
+						hi = i;
+					}
+				}
+			}
+			int first = Math.min(lo, hi), second = Math.max(lo, hi);
+			if (first > out[n - 1]) {
+				out[n++] = first;
+			}
+			if (second > out[n - 1]) {
+				out[n++] = second;
+			}
+		}
+		if (out[n - 1] != to - 1) {
+			out[n++] = to - 1;
+		}
+		return n;
+	}
+
+}
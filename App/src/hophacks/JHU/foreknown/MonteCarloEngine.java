@@ -0,0 +1,647 @@
+package hophacks.JHU.foreknown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs many GBM paths at once and reduces them to per-step bands.
+ *
+ * Paths are cut into fixed-size blocks that are handed to a shared pool
+ * sized to the number of cores. ForkJoinPool is not available at our
+ * minSdkVersion, so the split is done by hand over a plain executor.
+ *
+ * Every block draws from its own RandomStream, split off the caller's
+ * stream in block order. Blocks never depend on which thread runs them, so
+ * the same seed gives bit-identical bands for any pool size.
+ *
+ * In streaming mode (see SimulationOptions) paths are never stored: each
+ * step's prices go into one QuantileSketch per lane, so memory depends on
+ * the horizon but not on the number of paths. A band is the average of the
+ * lanes' sketch estimates, so its standard error covers the sketches'
+ * rank error as well as sampling noise.
+ *
+ * Paths can also be driven by randomly shifted Sobol points through a
+ * Brownian bridge instead of pseudo-random normals, one shift per lane;
+ * the bands are then the average of the lanes' estimates, as in
+ * streaming mode, so the spread between lanes measures their error.
+ * Antithetic pairs and a control variate on the known GBM mean can be
+ * turned on to cut the paths needed for a given accuracy, and every result
+ * carries standard errors estimated from independent batches of paths so
+ * the gain can be measured.
+ *
+ * simulateAdaptive picks the path count itself: it keeps adding batches
+ * until the bands are tight enough or a time budget runs out.
+ */
+public class MonteCarloEngine {
+
+	public static final double[] DEFAULT_PERCENTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+
+	static final int BLOCK_PATHS = 1024;
+
+	// Independent batches of blocks, see Summary; more lanes means more sketch memory
+	static final int LANES = 8;
+
+	// Paths per lane in the first batch of an adaptive run
+	static final int ADAPTIVE_FIRST_PATHS = 128;
+
+	private static MonteCarloEngine shared;
+
+	private final ExecutorService pool;
+	private final int parallelism;
+
+	public MonteCarloEngine(int threads) {
+		this.parallelism = threads;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "foreknown-mc-" + (count++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/** Engine with one worker per available core, shared by the whole app. */
+	public static synchronized MonteCarloEngine shared() {
+		if (shared == null) {
+			shared = new MonteCarloEngine(Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public ForecastBands simulate(GbmModel model, int paths, int horizon, double[] percentiles) {
+		return simulate(model, paths, horizon, percentiles, new SplitMix64());
+	}
+
+	/** Simulates with streams split from rng, which is advanced. */
+	public ForecastBands simulate(GbmModel model, int paths, int horizon, double[] percentiles,
+			RandomStream rng) {
+		return simulate(model, paths, horizon, new SimulationOptions().setPercentiles(percentiles), rng);
+	}
+
+	public ForecastBands simulate(GbmModel model, int paths, int horizon, SimulationOptions options,
+			RandomStream rng) {
+		if (paths < 1) {
+			throw new IllegalArgumentException("paths must be positive");
+		}
+		checkHorizon(horizon, options);
+
+		int blocks = (paths + BLOCK_PATHS - 1) / BLOCK_PATHS;
+		Run run = new Run(model, horizon, options, Math.min(LANES, blocks), rng);
+		RandomStream[] streams = new RandomStream[blocks];
+		for (int b = 0; b < blocks; b++) {
+			streams[b] = rng.split();
+		}
+
+		if (options.isStreaming()) {
+			return simulateStreaming(run, paths, streams);
+		}
+		return simulateExact(run, paths, streams);
+	}
+
+	/**
+	 * Simulates in growing batches, always in streaming mode, until every band
+	 * and the mean have a 95% confidence half-width below tolerance times
+	 * their value, or until about budgetMillis have passed. A batch is not
+	 * started if it is not expected to finish in time, but the first one
+	 * always runs. Check getRelativeHalfWidth() on the result to see how
+	 * precise it got.
+	 */
+	public ForecastBands simulateAdaptive(GbmModel model, int horizon, SimulationOptions options,
+			double tolerance, long budgetMillis, RandomStream rng) {
+		checkHorizon(horizon, options);
+		long deadline = System.nanoTime() + budgetMillis * 1000000L;
+
+		Run run = new Run(model, horizon, options, LANES, rng);
+		final Lane[] lanes = new Lane[LANES];
+		for (int l = 0; l < LANES; l++) {
+			lanes[l] = new Lane(run, l);
+		}
+
+		// Each batch matches the paths run so far, so the total doubles
+		int batch = ADAPTIVE_FIRST_PATHS;
+		int paths = 0;
+		for (;;) {
+			long start = System.nanoTime();
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int l = 0; l < LANES; l++) {
+				final Lane lane = lanes[l];
+				final int lanePaths = batch;
+				final RandomStream[] streams = new RandomStream[(lanePaths + BLOCK_PATHS - 1) / BLOCK_PATHS];
+				for (int b = 0; b < streams.length; b++) {
+					streams[b] = rng.split();
+				}
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						for (int b = 0; b < streams.length; b++) {
+							lane.run(streams[b], Math.min(BLOCK_PATHS, lanePaths - b * BLOCK_PATHS));
+						}
+						return null;
+					}
+				});
+			}
+			runAll(tasks);
+			paths += batch * LANES;
+
+			ForecastBands bands = summarizeLanes(run, lanes, paths);
+			long now = System.nanoTime();
+			int next = paths / LANES;
+			if (bands.getRelativeHalfWidth() <= tolerance || now + (now - start) * next / batch > deadline
+					|| (long) paths + next * LANES > Integer.MAX_VALUE) {
+				return bands;
+			}
+			batch = next;
+		}
+	}
+
+	private static void checkHorizon(int horizon, SimulationOptions options) {
+		if (horizon < 1) {
+			throw new IllegalArgumentException("horizon must be positive");
+		}
+		if (options.isQuasiRandom() && horizon > SobolSequence.MAX_DIMENSION) {
+			throw new IllegalArgumentException("Quasi-random horizon is limited to "
+					+ SobolSequence.MAX_DIMENSION + " steps, got " + horizon);
+		}
+	}
+
+	/** Lane l covers blocks [firstBlock(l), firstBlock(l + 1)). */
+	private static int firstBlock(int lane, int lanes, int blocks) {
+		return lane * blocks / lanes;
+	}
+
+	private ForecastBands simulateExact(final Run run, final int paths, final RandomStream[] streams) {
+		final int horizon = run.horizon;
+		final int lanes = run.lanes;
+		// Step-major storage so each step can be sorted on its own afterwards
+		final double[][] steps = new double[horizon][paths];
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int l = 0; l < lanes; l++) {
+			final int lane = l;
+			for (int b = firstBlock(l, lanes, streams.length); b < firstBlock(l + 1, lanes, streams.length); b++) {
+				final int block = b;
+				final long sobolIndex = (long) (b - firstBlock(l, lanes, streams.length)) * BLOCK_PATHS;
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						final int from = block * BLOCK_PATHS;
+						new PathKernel(run) {
+							@Override
+							void emit(int step, double[] prices, int n) {
+								System.arraycopy(prices, 0, steps[step], from, n);
+							}
+						}.run(streams[block], Math.min(BLOCK_PATHS, paths - from), lane, sobolIndex);
+						return null;
+					}
+				});
+			}
+		}
+		runAll(tasks);
+
+		final Summary summary = new Summary(run);
+		tasks.clear();
+		for (int k = 0; k < horizon; k++) {
+			final int step = k;
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					double[] values = steps[step];
+					double expected = run.expected(step);
+					double[] laneMeans = new double[lanes];
+					double[][] laneBands = new double[run.percentiles.length][lanes];
+					double[] estimate = new double[run.percentiles.length];
+					double[] bands = new double[run.percentiles.length];
+
+					// Sort each lane's range for its own estimate, then the whole step
+					for (int l = 0; l < lanes; l++) {
+						int from = Math.min(paths, firstBlock(l, lanes, streams.length) * BLOCK_PATHS);
+						int to = Math.min(paths, firstBlock(l + 1, lanes, streams.length) * BLOCK_PATHS);
+						Arrays.sort(values, from, to);
+						laneMeans[l] = summarizeSorted(values, from, to, run.percentiles, expected, estimate);
+						for (int j = 0; j < estimate.length; j++) {
+							laneBands[j][l] = estimate[j];
+							bands[j] += estimate[j] * (to - from) / paths;
+						}
+					}
+					Arrays.sort(values);
+					double mean = summarizeSorted(values, 0, values.length, run.percentiles, expected, estimate);
+					if (run.laneShifts != null) {
+						// Each quasi-random lane is evenly spread on its own, but the
+						// union of differently shifted lanes is not, so the lanes'
+						// spread only measures the error of their average
+						System.arraycopy(bands, 0, estimate, 0, bands.length);
+					}
+					summary.store(step, mean, estimate, laneMeans, laneBands);
+					return null;
+				}
+			});
+		}
+		runAll(tasks);
+		return summary.toBands(paths);
+	}
+
+	private ForecastBands simulateStreaming(Run run, int paths, final RandomStream[] streams) {
+		final Lane[] lanes = new Lane[run.lanes];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int l = 0; l < lanes.length; l++) {
+			final Lane lane = new Lane(run, l);
+			final int firstBlock = firstBlock(l, lanes.length, streams.length);
+			final int endBlock = firstBlock(l + 1, lanes.length, streams.length);
+			final int total = paths;
+			lanes[l] = lane;
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					for (int b = firstBlock; b < endBlock; b++) {
+						lane.run(streams[b], Math.min(BLOCK_PATHS, total - b * BLOCK_PATHS));
+					}
+					return null;
+				}
+			});
+		}
+		runAll(tasks);
+		return summarizeLanes(run, lanes, paths);
+	}
+
+	/**
+	 * Averages the lanes' estimates step by step; the lanes are left intact.
+	 * Reading the bands from one merged sketch instead would carry a rank
+	 * error that adding lanes does not shrink and the spread between lanes
+	 * does not show.
+	 */
+	private ForecastBands summarizeLanes(final Run run, final Lane[] lanes, int paths) {
+		final Summary summary = new Summary(run);
+		final double shift = run.model.getS0();
+		final int total = paths;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int k = 0; k < run.horizon; k++) {
+			final int step = k;
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					double expected = run.expected(step);
+					double[] laneMeans = new double[lanes.length];
+					double[][] laneBands = new double[run.percentiles.length][lanes.length];
+					double[] estimate = new double[run.percentiles.length];
+					double[] bands = new double[run.percentiles.length];
+
+					double sum = 0;
+					for (int l = 0; l < lanes.length; l++) {
+						Lane lane = lanes[l];
+						laneMeans[l] = summarizeSketch(lane.sketches[step], lane.paths, lane.sums[step],
+								lane.squares[step], shift, run.percentiles, expected, estimate);
+						for (int j = 0; j < estimate.length; j++) {
+							laneBands[j][l] = estimate[j];
+							bands[j] += estimate[j] * lane.paths / total;
+						}
+						sum += lane.sums[step];
+					}
+					// As summarizeSketch would give for all the paths at once
+					double mean = Double.isNaN(expected) || total < 2 ? shift + sum / total : expected;
+					System.arraycopy(bands, 0, estimate, 0, bands.length);
+					summary.store(step, mean, estimate, laneMeans, laneBands);
+					return null;
+				}
+			});
+		}
+		runAll(tasks);
+		return summary.toBands(paths);
+	}
+
+	void runAll(List<? extends Callable<Void>> tasks) {
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Simulation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Simulation failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes the percentiles of sorted[from, to) to out and returns its mean.
+	 * If expected is a number it is the known mean of the sample, which is
+	 * then used as a control variate (see controlledQuantile) and returned as
+	 * the mean.
+	 */
+	static double summarizeSorted(double[] sorted, int from, int to, double[] ps, double expected,
+			double[] out) {
+		int n = to - from;
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += sorted[i];
+		}
+		double mean = sum / n;
+
+		if (Double.isNaN(expected) || n < 2) {
+			for (int j = 0; j < ps.length; j++) {
+				out[j] = percentile(sorted, from, to, ps[j]);
+			}
+			return mean;
+		}
+
+		double squares = 0;
+		for (int i = from; i < to; i++) {
+			double d = sorted[i] - mean;
+			squares += d * d;
+		}
+		double slope = squares > 0 ? (mean - expected) / (squares / (n - 1)) : 0;
+		for (int j = 0; j < ps.length; j++) {
+			out[j] = controlledQuantile(sorted, from, to, mean, slope, ps[j]);
+		}
+		return expected;
+	}
+
+	/** Same as summarizeSorted for a sketch, given sums taken relative to shift. */
+	static double summarizeSketch(QuantileSketch sketch, int n, double sum, double squares, double shift,
+			double[] ps, double expected, double[] out) {
+		double mean = shift + sum / n;
+		if (Double.isNaN(expected) || n < 2) {
+			sketch.quantiles(ps, out);
+			return mean;
+		}
+
+		double centred = sum / n;
+		double variance = (squares - n * centred * centred) / (n - 1);
+		double slope = variance > 0 ? (mean - expected) / variance : 0;
+		sketch.quantiles(ps, out, mean, slope);
+		return expected;
+	}
+
+	/**
+	 * Quantile of a sorted sample whose true mean is known, using the sample
+	 * itself as a control variate for the empirical CDF (Hesterberg and
+	 * Nelson): F(y) is corrected by -slope * (1/n) * sum over x <= y of
+	 * (x - mean), with slope = (mean - trueMean) / variance. Each value's
+	 * corrected CDF is taken half a step below its own, as in percentile,
+	 * and the result is interpolated where the CDF reaches p; with slope 0
+	 * it is the same as percentile.
+	 */
+	static double controlledQuantile(double[] sorted, int from, int to, double mean, double slope,
+			double p) {
+		int n = to - from;
+		double deviation = 0;
+		double previous = 0;
+		for (int i = from; i < to; i++) {
+			deviation += sorted[i] - mean;
+			double cdf = (i - from + 0.5 - slope * deviation) / n;
+			if (cdf >= p) {
+				if (i == from || cdf <= previous) {
+					return sorted[i];
+				}
+				double frac = (p - previous) / (cdf - previous);
+				return sorted[i - 1] + frac * (sorted[i] - sorted[i - 1]);
+			}
+			previous = cdf;
+		}
+		return sorted[to - 1];
+	}
+
+	/**
+	 * Linear interpolation between order statistics of sorted[from, to),
+	 * taking the i-th smallest of n to sit at (i + 0.5) / n. That is where
+	 * the i-th of n evenly spread quasi-random points falls, so lane
+	 * estimates carry no O(1/n) bias for averaging to keep.
+	 */
+	static double percentile(double[] sorted, int from, int to, double p) {
+		double pos = from + p * (to - from) - 0.5;
+		if (pos <= from) {
+			return sorted[from];
+		}
+		int lo = (int) pos;
+		if (lo >= to - 1) {
+			return sorted[to - 1];
+		}
+		double frac = pos - lo;
+		return sorted[lo] + frac * (sorted[lo + 1] - sorted[lo]);
+	}
+
+	/** Standard error of the mean of independent lane estimates. */
+	static double standardError(double[] estimates) {
+		int n = estimates.length;
+		if (n < 2) {
+			return Double.NaN;
+		}
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += estimates[i];
+		}
+		double mean = sum / n;
+		double squares = 0;
+		for (int i = 0; i < n; i++) {
+			double d = estimates[i] - mean;
+			squares += d * d;
+		}
+		return Math.sqrt(squares / (n - 1) / n);
+	}
+
+	/** Everything one simulate call shares between its tasks. */
+	private static class Run {
+		final GbmModel model;
+		final int horizon;
+		final double[] percentiles;
+		final boolean antithetic;
+		final boolean controlVariate;
+		final int lanes;
+		// Each lane is an independently shifted copy of the Sobol points
+		final int[][] laneShifts;
+
+		Run(GbmModel model, int horizon, SimulationOptions options, int lanes, RandomStream rng) {
+			this.model = model;
+			this.horizon = horizon;
+			this.percentiles = options.getPercentiles();
+			this.antithetic = options.isAntithetic();
+			this.controlVariate = options.isControlVariate();
+			this.lanes = lanes;
+
+			if (options.isQuasiRandom()) {
+				laneShifts = new int[lanes][];
+				for (int l = 0; l < lanes; l++) {
+					laneShifts[l] = SobolSequence.randomShift(horizon, rng);
+				}
+			} else {
+				laneShifts = null;
+			}
+		}
+
+		/** Known mean price at step, or NaN when no control variate is used. */
+		double expected(int step) {
+			return controlVariate ? model.expectedPrice(step + 1) : Double.NaN;
+		}
+	}
+
+	/**
+	 * Per-step results being filled in by the summary tasks. Lanes are
+	 * independent batches of paths, and the spread of their estimates gives
+	 * the reported standard errors.
+	 */
+	private static class Summary {
+		final Run run;
+		final double[] mean;
+		final double[][] bands;
+		final double[] meanError;
+		final double[][] bandError;
+
+		Summary(Run run) {
+			this.run = run;
+			mean = new double[run.horizon];
+			bands = new double[run.percentiles.length][run.horizon];
+			meanError = new double[run.horizon];
+			bandError = new double[run.percentiles.length][run.horizon];
+		}
+
+		void store(int step, double stepMean, double[] estimate, double[] laneMeans, double[][] laneBands) {
+			mean[step] = stepMean;
+			meanError[step] = run.controlVariate ? 0 : standardError(laneMeans);
+			for (int j = 0; j < estimate.length; j++) {
+				bands[j][step] = estimate[j];
+				bandError[j][step] = standardError(laneBands[j]);
+			}
+		}
+
+		ForecastBands toBands(int paths) {
+			return new ForecastBands(run.percentiles.clone(), mean, bands, paths, meanError, bandError);
+		}
+	}
+
+	/**
+	 * One lane of a streaming run: a sketch per step plus sums for the mean
+	 * and variance, taken relative to the start price. Only one thread may
+	 * run a lane at a time.
+	 */
+	private static class Lane {
+		final QuantileSketch[] sketches;
+		final double[] sums;
+		final double[] squares;
+		final int index;
+		final PathKernel kernel;
+		int paths;
+
+		Lane(Run run, int index) {
+			this.index = index;
+			sketches = new QuantileSketch[run.horizon];
+			for (int k = 0; k < sketches.length; k++) {
+				sketches[k] = new QuantileSketch();
+			}
+			sums = new double[run.horizon];
+			squares = new double[run.horizon];
+			final double shift = run.model.getS0();
+			kernel = new PathKernel(run) {
+				@Override
+				void emit(int step, double[] prices, int n) {
+					sketches[step].addAll(prices, 0, n);
+					double s = 0, s2 = 0;
+					for (int p = 0; p < n; p++) {
+						double d = prices[p] - shift;
+						s += d;
+						s2 += d * d;
+					}
+					sums[step] += s;
+					squares[step] += s2;
+				}
+			};
+		}
+
+		/** Adds n more paths, at most one block. */
+		void run(RandomStream r, int n) {
+			kernel.run(r, n, index, paths);
+			paths += n;
+		}
+	}
+
+	/** Steps one block of paths and hands each step's prices to emit. */
+	private abstract static class PathKernel {
+		private final Run run;
+		private final double[] logS = new double[BLOCK_PATHS];
+		private final double[] z = new double[BLOCK_PATHS];
+		private final double[] prices = new double[BLOCK_PATHS];
+
+		// Quasi-random mode builds whole paths, so it keeps one block of them
+		private double[][] quasiPaths;
+		private double[] uniforms, normals, brownian;
+		private BrownianBridge bridge;
+
+		PathKernel(Run run) {
+			this.run = run;
+		}
+
+		/**
+		 * Runs n paths of the given lane. In quasi-random mode they take the
+		 * lane's Sobol points from sobolIndex on, otherwise they draw from r.
+		 */
+		void run(RandomStream r, int n, int lane, long sobolIndex) {
+			if (run.laneShifts != null) {
+				runQuasi(n, run.laneShifts[lane], sobolIndex);
+				return;
+			}
+			double mu = run.model.getMu();
+			double sigma = run.model.getSigma();
+			Arrays.fill(logS, 0, n, Math.log(run.model.getS0()));
+
+			// Antithetic pairs are path p and path p + drawn within the block
+			int drawn = run.antithetic ? (n + 1) / 2 : n;
+			for (int k = 0; k < run.horizon; k++) {
+				r.nextGaussians(z, 0, drawn);
+				for (int p = drawn; p < n; p++) {
+					z[p] = -z[p - drawn];
+				}
+				for (int p = 0; p < n; p++) {
+					logS[p] += mu + sigma * z[p];
+					prices[p] = Math.exp(logS[p]);
+				}
+				emit(k, prices, n);
+			}
+		}
+
+		/** Maps Sobol points to normals and builds each path with a Brownian bridge. */
+		private void runQuasi(int n, int[] shift, long sobolIndex) {
+			int horizon = run.horizon;
+			if (quasiPaths == null) {
+				quasiPaths = new double[horizon][BLOCK_PATHS];
+				uniforms = new double[horizon];
+				normals = new double[horizon];
+				brownian = new double[horizon];
+				bridge = new BrownianBridge(horizon);
+			}
+			SobolSequence sobol = new SobolSequence(horizon, shift);
+			sobol.seek(sobolIndex);
+
+			int drawn = run.antithetic ? (n + 1) / 2 : n;
+			double logS0 = Math.log(run.model.getS0());
+			double mu = run.model.getMu();
+			double sigma = run.model.getSigma();
+			for (int p = 0; p < drawn; p++) {
+				sobol.next(uniforms);
+				for (int d = 0; d < horizon; d++) {
+					normals[d] = NormalDistribution.inverseCdf(uniforms[d]);
+				}
+				bridge.transform(normals, brownian);
+				boolean mirrored = p + drawn < n;
+				for (int k = 0; k < horizon; k++) {
+					double trend = logS0 + mu * (k + 1);
+					quasiPaths[k][p] = Math.exp(trend + sigma * brownian[k]);
+					if (mirrored) {
+						quasiPaths[k][p + drawn] = Math.exp(trend - sigma * brownian[k]);
+					}
+				}
+			}
+			for (int k = 0; k < horizon; k++) {
+				emit(k, quasiPaths[k], n);
+			}
+		}
+
+		abstract void emit(int step, double[] prices, int n);
+	}
+
+}
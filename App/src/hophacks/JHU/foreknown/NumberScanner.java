@@ -0,0 +1,130 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Assembles one decimal number from the bytes of a CSV field, without
+ * creating a String. Surrounding spaces and quotes are ignored.
+ */
+final class NumberScanner {
+
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// Mantissas up to 2^53 convert exactly; beyond that fall back to the JDK
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final int MAX_FIELD_BYTES = 64;
+
+	private boolean started, invalid, negative, sawDigit, inFraction, inExponent, exponentNegative;
+	private boolean trailing;
+	private long mantissa;
+	private int exponent, scale;
+	private final byte[] raw = new byte[MAX_FIELD_BYTES];
+	private int rawLength;
+
+	void reset() {
+		started = invalid = negative = sawDigit = inFraction = inExponent = exponentNegative = trailing = false;
+		mantissa = 0;
+		exponent = scale = 0;
+		rawLength = 0;
+	}
+
+	/** Whether any byte other than padding has been seen. */
+	boolean isStarted() {
+		return started || invalid;
+	}
+
+	/** Whether the bytes so far form a complete number. */
+	boolean isValid() {
+		return started && !invalid && sawDigit;
+	}
+
+	void accept(byte b) {
+		if (invalid) {
+			return;
+		}
+		if (rawLength < MAX_FIELD_BYTES) {
+			raw[rawLength++] = b;
+		}
+
+		if (b >= '0' && b <= '9') {
+			if (trailing) {
+				invalid = true;
+				return;
+			}
+			started = true;
+			sawDigit = true;
+			int digit = b - '0';
+			if (inExponent) {
+				if (exponent < 10000) {
+					exponent = exponent * 10 + digit;
+				}
+			} else if (mantissa < MAX_EXACT_MANTISSA) {
+				mantissa = mantissa * 10 + digit;
+				if (inFraction) {
+					scale--;
+				}
+			} else if (!inFraction) {
+				// Digits past the exact range still count towards magnitude
+				scale++;
+			}
+			return;
+		}
+
+		switch (b) {
+		case ' ':
+		case '\t':
+		case '"':
+			trailing = started;
+			break;
+		case '-':
+		case '+':
+			if (!started) {
+				started = true;
+				negative = b == '-';
+			} else if (inExponent && !sawDigit) {
+				exponentNegative = b == '-';
+			} else {
+				invalid = true;
+			}
+			break;
+		case '.':
+			if (inFraction || inExponent || trailing) {
+				invalid = true;
+			}
+			started = true;
+			inFraction = true;
+			break;
+		case 'e':
+		case 'E':
+			if (inExponent || !sawDigit || trailing) {
+				invalid = true;
+			}
+			inExponent = true;
+			sawDigit = false;
+			break;
+		default:
+			invalid = true;
+		}
+	}
+
+	/** The number, valid only if isValid(). */
+	double value() {
+		int e = scale + (exponentNegative ? -exponent : exponent);
+		double v;
+		if (mantissa <= MAX_EXACT_MANTISSA && e >= -22 && e <= 22) {
+			// One correctly rounded multiply or divide gives the exact result
+			v = e >= 0 ? mantissa * POW10[e] : mantissa / POW10[-e];
+		} else if (rawLength < MAX_FIELD_BYTES) {
+			char[] chars = new char[rawLength];
+			for (int i = 0; i < rawLength; i++) {
+				chars[i] = (char) raw[i];
+			}
+			return Double.parseDouble(new String(chars).replace("\"", "").trim());
+		} else {
+			v = mantissa * Math.pow(10, e);
+		}
+		return negative ? -v : v;
+	}
+
+}
@@ -1,6 +1,5 @@
 package hophacks.JHU.foreknown;
 
-import java.util.*;
 import java.lang.Math;
 
 public class PredictionMath {
@@ -43,7 +42,7 @@ public class PredictionMath {
 		double So = arr[arr.length - 1];
 		double t = 0.0;
 		
-		Random r = new Random();
+		RandomStream r = new SplitMix64();
 		double Wt = 0;
 		double[] St = new double[(int)(tFinal/dt)];
 		int counter = 0;
@@ -61,4 +60,56 @@ public class PredictionMath {
 		return St;
 	}	
 	
+	/**
+	 * Writes one forecast path of params.getHorizon() steps into out and
+	 * returns it. Nothing is allocated and the only transcendental call per
+	 * step is the exp that turns the log price back into a price, so this
+	 * can run in tight loops over many series. The normals are drawn into
+	 * out first and then overwritten in place.
+	 */
+	public static double[] predict(ForecastParams params, RandomStream r, double[] out) {
+		int horizon = params.getHorizon();
+		if (out.length < horizon) {
+			throw new IllegalArgumentException("Output buffer holds " + out.length + " steps, need " + horizon);
+		}
+		double drift = params.getStepDrift();
+		double volatility = params.getStepVolatility();
+		double logS = Math.log(params.getS0());
+
+		r.nextGaussians(out, 0, horizon);
+		for (int k = 0; k < horizon; k++) {
+			logS += drift + volatility * out[k];
+			out[k] = Math.exp(logS);
+		}
+		return out;
+	}
+	
+	/**
+	 * Runs many forecast paths in parallel and returns the per-step mean and
+	 * the default percentile bands, instead of the single noisy path that
+	 * predict gives. The paths are streamed into sketches, never stored, so
+	 * memory does not grow with their number.
+	 */
+	public static ForecastBands simulate(double[] arr, int paths, int horizon) {
+		return simulate(arr, paths, horizon, new SplitMix64());
+	}
+
+	/**
+	 * Mean path and default percentile bands computed in closed form from the
+	 * fitted drift and volatility, without drawing any random numbers.
+	 */
+	public static ForecastBands forecast(double[] arr, int horizon) {
+		return GbmModel.fromPrices(arr).bands(horizon, MonteCarloEngine.DEFAULT_PERCENTILES);
+	}
+	
+	/** Same as simulate(arr, paths, horizon) but reproducible from seed. */
+	public static ForecastBands simulate(double[] arr, int paths, int horizon, long seed) {
+		return simulate(arr, paths, horizon, new SplitMix64(seed));
+	}
+
+	private static ForecastBands simulate(double[] arr, int paths, int horizon, RandomStream rng) {
+		return MonteCarloEngine.shared().simulate(GbmModel.fromPrices(arr), paths, horizon,
+				new SimulationOptions().setStreaming(true), rng);
+	}
+	
 }
\ No newline at end of file
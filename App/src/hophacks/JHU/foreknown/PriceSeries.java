@@ -0,0 +1,67 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Daily bars held column by column: one int array of dates and one double
+ * array per price field, so a series of any length is a handful of objects.
+ *
+ * Dates are yyyymmdd numbers, 0 where the source had none. Missing prices
+ * and volumes are NaN.
+ */
+public class PriceSeries {
+
+	public static final int OPEN = 0;
+	public static final int HIGH = 1;
+	public static final int LOW = 2;
+	public static final int CLOSE = 3;
+	public static final int VOLUME = 4;
+	public static final int COLUMNS = 5;
+
+	private final int[] dates;
+	private final double[][] columns;
+
+	/** Takes ownership of the arrays, which must all have the same length. */
+	public PriceSeries(int[] dates, double[] open, double[] high, double[] low, double[] close, double[] volume) {
+		int n = dates.length;
+		if (open.length != n || high.length != n || low.length != n || close.length != n || volume.length != n) {
+			throw new IllegalArgumentException("Columns differ in length");
+		}
+		this.dates = dates;
+		this.columns = new double[][] { open, high, low, close, volume };
+	}
+
+	public int size() {
+		return dates.length;
+	}
+
+	/** The dates, not copied. */
+	public int[] getDates() {
+		return dates;
+	}
+
+	public int getDate(int index) {
+		return dates[index];
+	}
+
+	/**
+	 * The values of one column, such as CLOSE to feed PredictionMath. The
+	 * array is not copied.
+	 */
+	public double[] getColumn(int column) {
+		if (column < 0 || column >= COLUMNS) {
+			throw new IllegalArgumentException("No column " + column);
+		}
+		return columns[column];
+	}
+
+	/** Whether any row has a value in the column. */
+	public boolean hasColumn(int column) {
+		double[] values = getColumn(column);
+		for (int i = 0; i < values.length; i++) {
+			if (!Double.isNaN(values[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,211 @@
+package hophacks.JHU.foreknown;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile sketch after Karnin, Lang and Liberty (KLL).
+ *
+ * Values go into level 0. When a level fills up it is sorted and every
+ * other value is promoted one level up with twice the weight. Each level's
+ * array is sized to its capacity, which shrinks by 2/3 per level below the
+ * top, so the sketch holds at most about 3k values however many it has
+ * seen, and answers rank queries to within roughly 1.7/k of the total
+ * weight. The coin that picks which half to promote is a hash of the data
+ * seen so far rather than a random draw, which keeps results reproducible
+ * for the same input.
+ */
+public class QuantileSketch {
+
+	public static final int DEFAULT_K = 256;
+
+	private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+	private final int k;
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private int numLevels = 1;
+	private long coin;
+	private long count;
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	public QuantileSketch(int k) {
+		if (k < 8) {
+			throw new IllegalArgumentException("k must be at least 8, got " + k);
+		}
+		this.k = k;
+		levels[0] = new double[k];
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void add(double value) {
+		if (sizes[0] == levels[0].length) {
+			grow(0, sizes[0] + 1);
+		}
+		levels[0][sizes[0]++] = value;
+		count++;
+		if (sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	/** Adds values[off, off + len). */
+	public void addAll(double[] values, int off, int len) {
+		for (int end = off + len; off < end; off++) {
+			add(values[off]);
+		}
+	}
+
+	/**
+	 * Writes the value at each probability in ps to out. Probabilities must
+	 * be in [0, 1]; the sketch must not be empty.
+	 */
+	public void quantiles(double[] ps, double[] out) {
+		quantiles(ps, out, 0, 0);
+	}
+
+	/**
+	 * Quantiles with a control-variate correction to the CDF: at value y the
+	 * rank fraction is reduced by slope * (1/n) * sum over x <= y of
+	 * (x - mean). See MonteCarloEngine.controlledQuantile.
+	 */
+	public void quantiles(double[] ps, double[] out, double mean, double slope) {
+		if (count == 0) {
+			throw new IllegalStateException("Empty sketch");
+		}
+		int retained = 0;
+		for (int h = 0; h < numLevels; h++) {
+			Arrays.sort(levels[h], 0, sizes[h]);
+			retained += sizes[h];
+		}
+
+		// Walk the sorted levels as one merged run, tracking cumulative weight
+		int[] cursor = new int[numLevels];
+		long total = 0;
+		for (int h = 0; h < numLevels; h++) {
+			total += (long) sizes[h] << h;
+		}
+		long cumulative = 0;
+		double deviation = 0;
+		int answered = 0;
+		int[] order = sortedIndex(ps);
+		for (int i = 0; i < retained && answered < ps.length; i++) {
+			int best = -1;
+			for (int h = 0; h < numLevels; h++) {
+				if (cursor[h] < sizes[h] && (best < 0 || levels[h][cursor[h]] < levels[best][cursor[best]])) {
+					best = h;
+				}
+			}
+			double value = levels[best][cursor[best]++];
+			long weight = 1L << best;
+			cumulative += weight;
+			deviation += weight * (value - mean);
+			double rank = cumulative - slope * deviation;
+			while (answered < ps.length && rank >= ps[order[answered]] * total) {
+				out[order[answered++]] = value;
+			}
+		}
+		for (; answered < ps.length; answered++) {
+			out[order[answered]] = max();
+		}
+	}
+
+	private double max() {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int h = 0; h < numLevels; h++) {
+			for (int i = 0; i < sizes[h]; i++) {
+				max = Math.max(max, levels[h][i]);
+			}
+		}
+		return max;
+	}
+
+	private static int[] sortedIndex(double[] ps) {
+		int[] order = new int[ps.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// Insertion sort, there are only ever a handful of probabilities
+		for (int i = 1; i < order.length; i++) {
+			int o = order[i];
+			int j = i - 1;
+			for (; j >= 0 && ps[order[j]] > ps[o]; j--) {
+				order[j + 1] = order[j];
+			}
+			order[j + 1] = o;
+		}
+		return order;
+	}
+
+	private int capacity(int level) {
+		int depth = numLevels - level - 1;
+		return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+	}
+
+	private void compress() {
+		for (int h = 0; h < numLevels; h++) {
+			if (sizes[h] >= capacity(h)) {
+				compact(h);
+			}
+		}
+	}
+
+	private void compact(int h) {
+		if (h + 1 == numLevels) {
+			addLevel();
+		}
+		double[] items = levels[h];
+		int size = sizes[h];
+		Arrays.sort(items, 0, size);
+
+		// With an odd count the smallest value stays behind at this level
+		int keep = size & 1;
+		coin = (coin ^ Double.doubleToLongBits(items[size >>> 1])) * 0x9e3779b97f4a7c15L;
+		int offset = (int) (coin >>> 63);
+		int promoted = (size - keep) / 2;
+		if (sizes[h + 1] + promoted > levels[h + 1].length) {
+			grow(h + 1, sizes[h + 1] + promoted);
+		}
+		double[] up = levels[h + 1];
+		int n = sizes[h + 1];
+		for (int i = keep + offset; i < size; i += 2) {
+			up[n++] = items[i];
+		}
+		sizes[h + 1] = n;
+		sizes[h] = keep;
+	}
+
+	private void addLevel() {
+		if (numLevels == levels.length) {
+			double[][] newLevels = new double[numLevels * 2][];
+			System.arraycopy(levels, 0, newLevels, 0, numLevels);
+			levels = newLevels;
+			int[] newSizes = new int[numLevels * 2];
+			System.arraycopy(sizes, 0, newSizes, 0, numLevels);
+			sizes = newSizes;
+		}
+		levels[numLevels] = new double[k];
+		numLevels++;
+		// Every level below the new one now has a smaller capacity
+		for (int h = 0; h < numLevels - 1; h++) {
+			int length = Math.max(sizes[h], capacity(h));
+			if (levels[h].length > length) {
+				double[] smaller = new double[length];
+				System.arraycopy(levels[h], 0, smaller, 0, sizes[h]);
+				levels[h] = smaller;
+			}
+		}
+	}
+
+	private void grow(int h, int minLength) {
+		double[] bigger = new double[Math.max(minLength, levels[h].length * 3 / 2)];
+		System.arraycopy(levels[h], 0, bigger, 0, sizes[h]);
+		levels[h] = bigger;
+	}
+
+}
@@ -0,0 +1,36 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Source of random numbers for the simulation kernel. Unlike
+ * java.util.Random a stream is not thread-safe and shares no state with
+ * anything else: parallel work gets its own stream through split(), so
+ * workers never contend and a run can be replayed from one seed.
+ */
+public abstract class RandomStream {
+
+	/** Next uniformly distributed 64-bit value. */
+	public abstract long nextLong();
+
+	/**
+	 * Returns a new stream that is statistically independent of this one and
+	 * advances this one. Splitting in the same order from the same seed always
+	 * gives the same streams.
+	 */
+	public abstract RandomStream split();
+
+	/** Uniform double in [0, 1). */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/** Standard normal sample, drawn with the ziggurat method. */
+	public double nextGaussian() {
+		return Ziggurat.next(this);
+	}
+
+	/** Fills out[off, off + len) with standard normal samples. */
+	public void nextGaussians(double[] out, int off, int len) {
+		Ziggurat.fill(this, out, off, len);
+	}
+
+}
@@ -1,66 +1,39 @@
 package hophacks.JHU.foreknown;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.lang.Number;
- 
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the first column of a price file on disk, from app-private storage
+ * or any other filesystem. The file is memory-mapped a window at a time
+ * and parsed straight out of the mapping, so files of several gigabytes
+ * are scanned without being copied onto the Java heap.
+ */
 public class ReadCSV {
- 
-  public float[] run(String file) {
- 
-	//String csvFile = file;
-	BufferedReader br = null;
-	String line = "";
-	String cvsSplitBy = ",";
-	String[] data = new String[252];
-	
-	try {
- 
-		//br = new BufferedReader(new FileReader(getAssets().open(file)));
-		while ((line = br.readLine()) != null) {
- 
-		    // use comma as separator
-			data = line.split(cvsSplitBy);
- 
-			for(int i = 0; i < data.length; i++) {
-				
-				if(data[i]==null) {
-					break;	
-				}
-				
-				System.out.println(data[i]);
-			}
- 
-		}
- 
-	} catch (FileNotFoundException e) {
-		e.printStackTrace();
-	} catch (IOException e) {
-		e.printStackTrace();
-	} finally {
-		if (br != null) {
-			try {
-				br.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+
+	// A single mapping is limited to 2 GB, so larger files are walked in windows
+	private static final long WINDOW_BYTES = 64L << 20;
+
+	public double[] run(String file) throws IOException {
+		return run(new File(file));
 	}
- 
-	float[] dataFloat = new float[252];
-	for(int i = 0; i < data.length; i++) {
-		
-		if(data[i]==null) {
-			break;	
+
+	public double[] run(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			CsvPriceParser parser = new CsvPriceParser();
+			for (long position = 0; position < size; position += WINDOW_BYTES) {
+				long length = Math.min(WINDOW_BYTES, size - position);
+				parser.feed(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+			}
+			return parser.finish();
+		} finally {
+			raf.close();
 		}
-		
-		dataFloat[i] = Float.parseFloat(data[i]);
 	}
-	
-	System.out.println("Done");
-	return dataFloat;
-  }
- 
-}
\ No newline at end of file
+
+}
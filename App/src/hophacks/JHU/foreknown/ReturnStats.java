@@ -0,0 +1,89 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Running mean and variance of the log returns of a price series, updated
+ * one price at a time with Welford's method. Appending a price or evicting
+ * the oldest return of a rolling window is O(1), so a live series never
+ * has to be rescanned to refit its GbmModel.
+ */
+public class ReturnStats {
+
+	private int count;
+	private double mean;
+	private double m2;
+	private double lastPrice = Double.NaN;
+
+	/** Adds the next price of the series. */
+	public void append(double price) {
+		if (!Double.isNaN(lastPrice)) {
+			add(Math.log(price / lastPrice));
+		}
+		lastPrice = price;
+	}
+
+	/** Forgets every price, so the instance can fit another series. */
+	public void reset() {
+		count = 0;
+		mean = 0;
+		m2 = 0;
+		lastPrice = Double.NaN;
+	}
+
+	/**
+	 * Drops the return from oldest to next, the two earliest prices still in
+	 * the window, so the stats cover a rolling window.
+	 */
+	public void evict(double oldest, double next) {
+		remove(Math.log(next / oldest));
+	}
+
+	private void add(double x) {
+		count++;
+		double delta = x - mean;
+		mean += delta / count;
+		m2 += delta * (x - mean);
+	}
+
+	private void remove(double x) {
+		if (count <= 1) {
+			count = 0;
+			mean = 0;
+			m2 = 0;
+			return;
+		}
+		count--;
+		double delta = x - mean;
+		mean -= delta / count;
+		m2 -= delta * (x - mean);
+		if (m2 < 0) {
+			m2 = 0;
+		}
+	}
+
+	/** Number of returns currently included. */
+	public int getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/** Sample variance of the returns. */
+	public double getVariance() {
+		return count > 1 ? m2 / (count - 1) : 0;
+	}
+
+	public double getLastPrice() {
+		return lastPrice;
+	}
+
+	/** Model starting from the last appended price. */
+	public GbmModel toModel() {
+		if (count < 2) {
+			throw new IllegalStateException("Need at least 2 returns, have " + count);
+		}
+		return new GbmModel(lastPrice, mean, Math.sqrt(getVariance()));
+	}
+
+}
@@ -0,0 +1,117 @@
+package hophacks.JHU.foreknown;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+/**
+ * Process-wide least-recently-used cache of loaded series and forecasts,
+ * bounded by their size in memory.
+ *
+ * Entries are keyed by ticker and a content version chosen by the loader,
+ * such as the number of bars stored, so a changed series never matches a
+ * stale entry. LruCache locks around each call, so any thread may read or
+ * fill it.
+ *
+ * The process cache listens for memory pressure on the application itself,
+ * so it is trimmed whichever activity, if any, is showing.
+ */
+public class SeriesCache {
+
+	private static final String SERIES = "series";
+	private static final String FORECAST = "forecast";
+
+	private static SeriesCache instance;
+
+	private final LruCache<String, Object> entries;
+
+	/** Cache of at most maxKilobytes of values. */
+	public SeriesCache(int maxKilobytes) {
+		entries = new LruCache<String, Object>(maxKilobytes) {
+			@Override
+			protected int sizeOf(String key, Object value) {
+				long bytes = key.length() * 2 + 64;
+				if (value instanceof double[]) {
+					bytes += ((double[]) value).length * 8;
+				} else {
+					ForecastBands bands = (ForecastBands) value;
+					// The mean and every band, each with its standard errors
+					bytes += (long) bands.getHorizon() * (bands.getPercentiles().length + 1) * 16;
+				}
+				return (int) Math.max(1, bytes / 1024);
+			}
+		};
+	}
+
+	/** The process cache, given an eighth of the heap. */
+	public static synchronized SeriesCache get(Context context) {
+		if (instance == null) {
+			instance = new SeriesCache((int) (Runtime.getRuntime().maxMemory() / 1024 / 8));
+			instance.register(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/** The series of ticker at version, or null if not cached. */
+	public double[] getSeries(String ticker, long version) {
+		return (double[]) entries.get(key(SERIES, ticker, version));
+	}
+
+	public void putSeries(String ticker, long version, double[] values) {
+		entries.put(key(SERIES, ticker, version), values);
+	}
+
+	/** The forecast made from the series of ticker at version, or null. */
+	public ForecastBands getForecast(String ticker, long version) {
+		return (ForecastBands) entries.get(key(FORECAST, ticker, version));
+	}
+
+	public void putForecast(String ticker, long version, ForecastBands forecast) {
+		entries.put(key(FORECAST, ticker, version), forecast);
+	}
+
+	/**
+	 * Sheds entries for a ComponentCallbacks2 trim level: half the cache
+	 * once the app is in the background or memory runs low, and all of it
+	 * when the process is next in line to be killed.
+	 */
+	public void onTrimMemory(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			entries.evictAll();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+				|| level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			entries.trimToSize(entries.maxSize() / 2);
+		}
+	}
+
+	public void onLowMemory() {
+		entries.evictAll();
+	}
+
+	private void register(Context application) {
+		// Component callbacks on the application arrived in API 14; before
+		// that there is no process-wide hook, and the size bound has to do
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			return;
+		}
+		application.registerComponentCallbacks(new ComponentCallbacks2() {
+			public void onTrimMemory(int level) {
+				SeriesCache.this.onTrimMemory(level);
+			}
+
+			public void onLowMemory() {
+				SeriesCache.this.onLowMemory();
+			}
+
+			public void onConfigurationChanged(Configuration newConfig) {
+			}
+		});
+	}
+
+	private static String key(String kind, String ticker, long version) {
+		return kind + ':' + ticker.trim().toUpperCase() + '@' + version;
+	}
+
+}
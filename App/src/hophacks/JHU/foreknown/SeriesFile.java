@@ -0,0 +1,216 @@
+package hophacks.JHU.foreknown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary file for one price series, so a cold start maps a file
+ * instead of parsing text.
+ *
+ * Layout, all little-endian: a 32-byte header (magic "FKS1", version,
+ * encoding, value count, fixed-point scale, base tick count) followed by
+ * the values. RAW_DOUBLE stores plain doubles that are mapped and read in
+ * place. DELTA_FIXED stores prices as whole ticks of 1/scale, each as an
+ * int difference from the previous price, which halves the size when
+ * prices have a fixed number of decimals. VARINT_BLOCKS stores the same
+ * ticks as a CompressedSeries, whose blocks can be decoded one at a time.
+ */
+public class SeriesFile {
+
+	public static final int RAW_DOUBLE = 0;
+	public static final int DELTA_FIXED = 1;
+	public static final int VARINT_BLOCKS = 2;
+
+	/** Ticks per unit used when converting to fixed point; cents to four places. */
+	public static final double DEFAULT_SCALE = 10000;
+
+	static final int MAGIC = 0x31534b46; // "FKS1" read as a little-endian int
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+
+	private static final int WRITE_CHUNK_BYTES = 64 * 1024;
+
+	private SeriesFile() {
+	}
+
+	/** Converts the first column of a CSV stream; the stream is not closed. */
+	public static void fromCsv(InputStream csv, File out, int encoding) throws IOException {
+		write(CsvPriceParser.parse(csv), out, encoding, DEFAULT_SCALE);
+	}
+
+	/**
+	 * Writes values to out. The fixed-point encodings require every value to
+	 * be a whole number of 1/scale ticks, and DELTA_FIXED also requires
+	 * consecutive differences to fit in an int.
+	 */
+	public static void write(double[] values, File out, int encoding, double scale) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putShort((short) VERSION).putShort((short) encoding).putInt(values.length);
+		header.putInt(0).putDouble(scale);
+
+		int[] deltas = null;
+		ByteBuffer blocks = null;
+		long base = 0;
+		if (encoding == VARINT_BLOCKS) {
+			blocks = CompressedSeries.encode(values, scale);
+		} else if (encoding == DELTA_FIXED) {
+			deltas = new int[values.length];
+			long previous = values.length > 0 ? toTicks(values[0], scale) : 0;
+			base = previous;
+			for (int i = 0; i < values.length; i++) {
+				long ticks = toTicks(values[i], scale);
+				long delta = ticks - previous;
+				if (delta != (int) delta) {
+					throw new IllegalArgumentException("Price step too large for DELTA_FIXED at " + i);
+				}
+				deltas[i] = (int) delta;
+				previous = ticks;
+			}
+		} else if (encoding != RAW_DOUBLE) {
+			throw new IllegalArgumentException("Unknown encoding " + encoding);
+		}
+		header.putLong(base);
+		header.flip();
+
+		FileOutputStream stream = new FileOutputStream(out);
+		try {
+			FileChannel channel = stream.getChannel();
+			writeFully(channel, header);
+			if (blocks != null) {
+				writeFully(channel, blocks);
+				return;
+			}
+			ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < values.length; i++) {
+				if (chunk.remaining() < 8) {
+					chunk.flip();
+					writeFully(channel, chunk);
+					chunk.clear();
+				}
+				if (deltas != null) {
+					chunk.putInt(deltas[i]);
+				} else {
+					chunk.putDouble(values[i]);
+				}
+			}
+			chunk.flip();
+			writeFully(channel, chunk);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Maps a series file. RAW_DOUBLE files come back as a view straight onto
+	 * the mapping; the fixed-point encodings are decoded into a heap buffer.
+	 */
+	public static DoubleBuffer load(File file) throws IOException {
+		ByteBuffer mapped = map(file);
+		int encoding = mapped.getShort(6);
+		int count = mapped.getInt(8);
+		double scale = mapped.getDouble(16);
+		long base = mapped.getLong(24);
+
+		mapped.position(HEADER_BYTES);
+		// slice() resets the byte order, so set it again on the body
+		ByteBuffer body = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (encoding == RAW_DOUBLE) {
+			DoubleBuffer values = body.asDoubleBuffer();
+			values.limit(count);
+			return values;
+		}
+		if (encoding == DELTA_FIXED) {
+			IntBuffer deltas = body.asIntBuffer();
+			double[] values = new double[count];
+			long ticks = base;
+			for (int i = 0; i < count; i++) {
+				ticks += deltas.get(i);
+				values[i] = ticks / scale;
+			}
+			return DoubleBuffer.wrap(values);
+		}
+		if (encoding == VARINT_BLOCKS) {
+			return DoubleBuffer.wrap(new CompressedSeries(body, count, scale).toArray());
+		}
+		throw new IOException("Unknown series encoding " + encoding);
+	}
+
+	/**
+	 * Maps a VARINT_BLOCKS file for block-at-a-time reads, without decoding
+	 * anything up front.
+	 */
+	public static CompressedSeries openBlocks(File file) throws IOException {
+		ByteBuffer mapped = map(file);
+		if (mapped.getShort(6) != VARINT_BLOCKS) {
+			throw new IOException("Series file is not block encoded: " + file);
+		}
+		mapped.position(HEADER_BYTES);
+		return new CompressedSeries(mapped, mapped.getInt(8), mapped.getDouble(16));
+	}
+
+	/** Copies a loaded series into an array. */
+	public static double[] toArray(DoubleBuffer buffer) {
+		double[] values = new double[buffer.remaining()];
+		buffer.duplicate().get(values);
+		return values;
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (channel.size() < HEADER_BYTES || mapped.getInt(0) != MAGIC) {
+				throw new IOException("Not a series file: " + file);
+			}
+			if (mapped.getShort(4) != VERSION) {
+				throw new IOException("Unsupported series file version " + mapped.getShort(4));
+			}
+			return mapped;
+		} finally {
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/** Whether every value is a whole number of 1/scale ticks, as the fixed-point encodings need. */
+	public static boolean isWholeTicks(double[] values, double scale) {
+		for (int i = 0; i < values.length; i++) {
+			double scaled = values[i] * scale;
+			if (!isWhole(scaled, Math.round(scaled))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static long toTicks(double value, double scale) {
+		double scaled = value * scale;
+		long ticks = Math.round(scaled);
+		if (!isWhole(scaled, ticks)) {
+			throw new IllegalArgumentException(value + " is not a whole number of 1/" + scale + " ticks");
+		}
+		return ticks;
+	}
+
+	private static boolean isWhole(double scaled, long ticks) {
+		// NaN rounds to 0 but fails this comparison; an infinity passes it
+		return Math.abs(scaled - ticks) <= 1e-6 * Math.max(1, Math.abs(scaled)) && !Double.isInfinite(scaled);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package hophacks.JHU.foreknown;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.Context;
+
+/**
+ * Finds and loads the price history behind a ticker: from the bar store
+ * when it has the ticker, or from the bundled sample asset for
+ * SAMPLE_TICKER or a blank ticker, going through SeriesCache either way.
+ * Any other ticker has no data. Safe to call from any thread.
+ */
+public class SeriesLoader {
+
+	static final String SAMPLE_ASSET = "2013r.csv";
+	/** Ticker whose closes the sample asset holds. */
+	static final String SAMPLE_TICKER = "HPQ";
+	private static final String BAR_DIRECTORY = "bars";
+
+	private static TickerStore store;
+
+	private final Context context;
+
+	public SeriesLoader(Context context) {
+		// Held past any one activity, so keep only the application
+		this.context = context.getApplicationContext();
+	}
+
+	/**
+	 * Cache key for the history of ticker: the ticker itself when it is
+	 * stored, otherwise the sample asset for SAMPLE_TICKER or a blank
+	 * ticker. '/' never appears in a ticker, so the two cannot collide.
+	 *
+	 * @throws FileNotFoundException if there is no data for ticker
+	 */
+	public String getSource(String ticker) throws IOException {
+		String name = ticker == null ? "" : ticker.trim();
+		if (TickerStore.isValidTicker(name) && getStore().contains(name)) {
+			return name;
+		}
+		if (name.length() == 0 || name.equalsIgnoreCase(SAMPLE_TICKER)) {
+			return "asset/" + SAMPLE_ASSET;
+		}
+		throw new FileNotFoundException("No data for " + name);
+	}
+
+	/** Content version of a source, which changes whenever its data does. */
+	public long getVersion(String source) throws IOException {
+		if (isAsset(source)) {
+			return new File(context.getPackageCodePath()).lastModified();
+		}
+		// The store is append-only, so its bar count identifies the content
+		return getStore().size(source);
+	}
+
+	/** The closes of a source at version, from the cache when present. */
+	public double[] load(String source, long version) throws IOException {
+		SeriesCache cache = getCache();
+		double[] values = cache.getSeries(source, version);
+		if (values == null) {
+			values = isAsset(source) ? loadAsset(source.substring(source.indexOf('/') + 1)) : loadTicker(source);
+			cache.putSeries(source, version, values);
+		}
+		return values;
+	}
+
+	/** The process-wide cache this loader fills. */
+	public SeriesCache getCache() {
+		return SeriesCache.get(context);
+	}
+
+	private static boolean isAsset(String source) {
+		return source.startsWith("asset/");
+	}
+
+	private TickerStore getStore() {
+		synchronized (SeriesLoader.class) {
+			if (store == null) {
+				store = new TickerStore(new File(context.getFilesDir(), BAR_DIRECTORY));
+			}
+			return store;
+		}
+	}
+
+	/** Loads the last year of closes for ticker from the bar store. */
+	private double[] loadTicker(String ticker) throws IOException {
+		// A yyyymmdd date less 10000 is the same day a year earlier
+		TickerStore bars = getStore();
+		int last = bars.getLastDate(ticker);
+		return closes(bars.read(ticker, last - 10000, last), ticker);
+	}
+
+	/**
+	 * Loads a bundled CSV asset through a binary copy in app storage, so only
+	 * the first launch after an install or update parses text. The copy is
+	 * block encoded when every close is a whole number of ticks, and stored
+	 * as plain doubles otherwise.
+	 */
+	private double[] loadAsset(String csvSource) throws IOException {
+		File cached = new File(context.getFilesDir(), csvSource + ".fks");
+		long installed = new File(context.getPackageCodePath()).lastModified();
+		if (!cached.exists() || cached.lastModified() < installed) {
+			File partial = new File(context.getFilesDir(), csvSource + ".fks.tmp");
+			double[] values = readAndInsert(csvSource);
+			int encoding = SeriesFile.isWholeTicks(values, SeriesFile.DEFAULT_SCALE)
+					? SeriesFile.VARINT_BLOCKS : SeriesFile.RAW_DOUBLE;
+			SeriesFile.write(values, partial, encoding, SeriesFile.DEFAULT_SCALE);
+			if (!partial.renameTo(cached)) {
+				throw new IOException("Could not replace " + cached);
+			}
+		}
+		return SeriesFile.toArray(SeriesFile.load(cached));
+	}
+
+	private double[] readAndInsert(String csvSource) throws IOException {
+		InputStream is = context.getAssets().open(csvSource);
+		try {
+			return closes(CsvSeriesParser.parse(is), csvSource);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * The close column without the rows that have no close, refusing a
+	 * series left with none to fit a model to.
+	 */
+	private static double[] closes(PriceSeries series, String name) throws IOException {
+		if (!series.hasColumn(PriceSeries.CLOSE)) {
+			throw new IOException("No close prices in " + name);
+		}
+		double[] close = series.getColumn(PriceSeries.CLOSE);
+		int n = 0;
+		for (int i = 0; i < close.length; i++) {
+			if (!Double.isNaN(close[i])) {
+				n++;
+			}
+		}
+		if (n == close.length) {
+			return close;
+		}
+		double[] kept = new double[n];
+		for (int i = 0, j = 0; i < close.length; i++) {
+			if (!Double.isNaN(close[i])) {
+				kept[j++] = close[i];
+			}
+		}
+		return kept;
+	}
+
+}
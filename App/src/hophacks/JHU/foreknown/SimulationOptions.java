@@ -0,0 +1,77 @@
+package hophacks.JHU.foreknown;
+
+/** Knobs for a MonteCarloEngine run. Setters return this so they can be chained. */
+public class SimulationOptions {
+
+	private double[] percentiles = MonteCarloEngine.DEFAULT_PERCENTILES;
+	private boolean streaming = false;
+	private boolean antithetic = false;
+	private boolean controlVariate = false;
+	private boolean quasiRandom = false;
+
+	public double[] getPercentiles() {
+		return percentiles;
+	}
+
+	/** Percentiles to report, each in [0, 1]. */
+	public SimulationOptions setPercentiles(double... percentiles) {
+		this.percentiles = percentiles.clone();
+		return this;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Feed each step into a QuantileSketch instead of keeping every path, so
+	 * memory stays flat however many paths are run. Percentiles are then
+	 * approximate, to within about half a percentile point.
+	 */
+	public SimulationOptions setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
+
+	public boolean isAntithetic() {
+		return antithetic;
+	}
+
+	/** Pair every path with its mirror image, drawn from the negated normals. */
+	public SimulationOptions setAntithetic(boolean antithetic) {
+		this.antithetic = antithetic;
+		return this;
+	}
+
+	public boolean isControlVariate() {
+		return controlVariate;
+	}
+
+	/**
+	 * Correct each step against the model's known expected price. The mean
+	 * path then equals the exact GBM expectation and the percentiles are
+	 * adjusted by how far the sample mean strayed from it.
+	 */
+	public SimulationOptions setControlVariate(boolean controlVariate) {
+		this.controlVariate = controlVariate;
+		return this;
+	}
+
+	public boolean isQuasiRandom() {
+		return quasiRandom;
+	}
+
+	/**
+	 * Drive paths with Sobol points and a Brownian bridge instead of
+	 * pseudo-random normals. Each lane of paths gets its own random digital
+	 * shift and the bands average the lanes' estimates, so the standard
+	 * errors, taken from the spread between lanes, match the bands. The
+	 * horizon is limited to SobolSequence.MAX_DIMENSION steps, and runs
+	 * converge fastest when each lane gets a power-of-two number of paths.
+	 */
+	public SimulationOptions setQuasiRandom(boolean quasiRandom) {
+		this.quasiRandom = quasiRandom;
+		return this;
+	}
+
+}
@@ -0,0 +1,174 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Sobol low-discrepancy sequence in up to MAX_DIMENSION dimensions, with an
+ * optional random digital shift so independent copies can be used to
+ * estimate errors.
+ *
+ * Dimensions 2 to 16 use Joe and Kuo's initial direction numbers. Later
+ * dimensions use primitive polynomials found at class load and fixed
+ * pseudo-random odd initial values. Those dimensions are weaker, which is
+ * acceptable here because BrownianBridge puts the coarse shape of every
+ * path into the first few dimensions.
+ */
+final class SobolSequence {
+
+	static final int MAX_DIMENSION = 1024;
+
+	private static final int BITS = 32;
+
+	// Initial m values for dimensions 2 to 16, from Joe and Kuo (2008)
+	private static final int[][] JOE_KUO_M = {
+		{1}, {1, 3}, {1, 3, 1}, {1, 1, 1}, {1, 1, 3, 3}, {1, 3, 5, 13},
+		{1, 1, 5, 5, 17}, {1, 1, 5, 5, 5}, {1, 1, 7, 11, 19}, {1, 1, 5, 1, 1},
+		{1, 1, 1, 3, 11}, {1, 3, 5, 5, 31}, {1, 3, 3, 9, 7, 49},
+		{1, 1, 1, 15, 21, 21}, {1, 3, 1, 13, 27, 49}
+	};
+
+	// DIRECTIONS[d][j] is the direction number for bit j of the Gray code
+	private static final int[][] DIRECTIONS = directions(MAX_DIMENSION);
+
+	private final int dimension;
+	private final int[] shift;
+	private final int[] point;
+	private long index;
+
+	/** Sequence whose points are XORed with shift, one word per dimension. */
+	SobolSequence(int dimension, int[] shift) {
+		if (dimension < 1 || dimension > MAX_DIMENSION) {
+			throw new IllegalArgumentException("Dimension must be in [1, " + MAX_DIMENSION + "], got "
+					+ dimension);
+		}
+		this.dimension = dimension;
+		this.shift = shift;
+		this.point = new int[dimension];
+	}
+
+	/** Random digital shift drawn from r. */
+	static int[] randomShift(int dimension, RandomStream r) {
+		int[] shift = new int[dimension];
+		for (int d = 0; d < dimension; d++) {
+			shift[d] = (int) r.nextLong();
+		}
+		return shift;
+	}
+
+	/** Positions the sequence so the next point returned is number index. */
+	void seek(long index) {
+		if (index < 0 || index >= 1L << BITS) {
+			throw new IllegalArgumentException("Index out of range: " + index);
+		}
+		long gray = index ^ (index >>> 1);
+		for (int d = 0; d < dimension; d++) {
+			int x = 0;
+			for (int j = 0; j < BITS; j++) {
+				if ((gray >>> j & 1) != 0) {
+					x ^= DIRECTIONS[d][j];
+				}
+			}
+			point[d] = x;
+		}
+		this.index = index;
+	}
+
+	/** Writes the next point, as uniforms strictly inside (0, 1), to out. */
+	void next(double[] out) {
+		for (int d = 0; d < dimension; d++) {
+			out[d] = (((point[d] ^ shift[d]) & 0xffffffffL) + 0.5) * 0x1.0p-32;
+		}
+		// Consecutive Gray codes differ in the lowest zero bit of index
+		int bit = Long.numberOfTrailingZeros(~index);
+		for (int d = 0; d < dimension; d++) {
+			point[d] ^= DIRECTIONS[d][bit];
+		}
+		index++;
+	}
+
+	private static int[][] directions(int dimensions) {
+		int[][] v = new int[dimensions][BITS];
+		for (int j = 0; j < BITS; j++) {
+			v[0][j] = 1 << (BITS - 1 - j);
+		}
+
+		RandomStream initial = new SplitMix64(0x5eed5eedL);
+		int d = 1;
+		for (int degree = 1; d < dimensions; degree++) {
+			for (int poly = (1 << degree) | 1; poly < 1 << (degree + 1) && d < dimensions; poly += 2) {
+				if (!isPrimitive(poly, degree)) {
+					continue;
+				}
+				int[] m = new int[BITS];
+				for (int i = 0; i < degree && i < BITS; i++) {
+					if (d <= JOE_KUO_M.length) {
+						m[i] = JOE_KUO_M[d - 1][i];
+					} else {
+						// Any odd value below 2^(i+1) gives a valid sequence
+						m[i] = (int) (initial.nextLong() >>> (63 - i)) | 1;
+					}
+				}
+				for (int i = degree; i < BITS; i++) {
+					int next = m[i - degree] ^ (m[i - degree] << degree);
+					for (int k = 1; k < degree; k++) {
+						if ((poly >>> (degree - k) & 1) != 0) {
+							next ^= m[i - k] << k;
+						}
+					}
+					m[i] = next;
+				}
+				for (int j = 0; j < BITS; j++) {
+					v[d][j] = m[j] << (BITS - 1 - j);
+				}
+				d++;
+			}
+		}
+		return v;
+	}
+
+	/** Whether poly, a GF(2) polynomial of the given degree as a bit mask, is primitive. */
+	static boolean isPrimitive(int poly, int degree) {
+		long order = (1L << degree) - 1;
+		if (powX(order, poly, degree) != 1) {
+			return false;
+		}
+		long rest = order;
+		for (long q = 2; q * q <= rest; q++) {
+			if (rest % q == 0) {
+				if (powX(order / q, poly, degree) == 1) {
+					return false;
+				}
+				while (rest % q == 0) {
+					rest /= q;
+				}
+			}
+		}
+		return rest == 1 || rest == order || powX(order / rest, poly, degree) != 1;
+	}
+
+	/** x^e modulo poly. */
+	private static long powX(long e, int poly, int degree) {
+		long result = 1;
+		long base = degree == 1 ? 1 : 2;
+		for (; e > 0; e >>= 1) {
+			if ((e & 1) != 0) {
+				result = mulMod(result, base, poly, degree);
+			}
+			base = mulMod(base, base, poly, degree);
+		}
+		return result;
+	}
+
+	private static long mulMod(long a, long b, int poly, int degree) {
+		long product = 0;
+		for (; b != 0; b >>>= 1) {
+			if ((b & 1) != 0) {
+				product ^= a;
+			}
+			a <<= 1;
+			if ((a >>> degree & 1) != 0) {
+				a ^= poly;
+			}
+		}
+		return product;
+	}
+
+}
@@ -0,0 +1,65 @@
+package hophacks.JHU.foreknown;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SplitMix64 generator behind java.util.SplittableRandom, which only
+ * ships with Android API 24. Each instance walks a Weyl sequence with its
+ * own odd increment (gamma) and scrambles it; split() derives a child with
+ * a fresh seed and gamma.
+ */
+public class SplitMix64 extends RandomStream {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private static final AtomicLong defaultSeeds =
+			new AtomicLong(mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+	private long seed;
+	private final long gamma;
+
+	public SplitMix64(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	/** Stream with a seed that differs from every other unseeded stream. */
+	public SplitMix64() {
+		long s = defaultSeeds.getAndAdd(2 * GOLDEN_GAMMA);
+		this.seed = mix64(s);
+		this.gamma = mixGamma(s + GOLDEN_GAMMA);
+	}
+
+	private SplitMix64(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	@Override
+	public long nextLong() {
+		seed += gamma;
+		return mix64(seed);
+	}
+
+	@Override
+	public RandomStream split() {
+		long childSeed = nextLong();
+		seed += gamma;
+		return new SplitMix64(childSeed, mixGamma(seed));
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		// Avoid gammas with too few bit transitions, as SplittableRandom does
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+
+}
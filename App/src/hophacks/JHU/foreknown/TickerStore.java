@@ -0,0 +1,300 @@
+package hophacks.JHU.foreknown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only store of daily bars, one log file per ticker in a directory.
+ *
+ * Each log is a short header followed by fixed-size little-endian records
+ * (yyyymmdd date, open, high, low, close, volume) in strictly increasing
+ * date order. Bars are only ever appended, so history is never rewritten.
+ * Beside each log an index file keeps the date and record number of every
+ * INDEX_INTERVAL-th record; a range read binary searches that sparse index
+ * in memory and then scans the log forward from one mapped position.
+ *
+ * A write cut short leaves at most a partial record at the end of the log,
+ * which reads ignore and the next append overwrites.
+ */
+public class TickerStore {
+
+	public static final int INDEX_INTERVAL = 128;
+
+	static final int MAGIC = 0x31544b46; // "FKT1" read as a little-endian int
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 8;
+	static final int RECORD_BYTES = 4 + 8 * PriceSeries.COLUMNS;
+	private static final int INDEX_ENTRY_BYTES = 8;
+
+	private final File directory;
+	private final Map<String, Ticker> tickers = new HashMap<String, Ticker>();
+
+	/** Per-ticker state kept in memory once a ticker is first touched. */
+	private static class Ticker {
+		final File log;
+		final File index;
+		final IntArray indexDates = new IntArray(16);
+		final IntArray indexRecords = new IntArray(16);
+		int records;
+		int lastDate;
+
+		Ticker(File log, File index) {
+			this.log = log;
+			this.index = index;
+		}
+	}
+
+	public TickerStore(File directory) {
+		this.directory = directory;
+	}
+
+	/** Whether any bars are stored for ticker. */
+	public synchronized boolean contains(String ticker) throws IOException {
+		return open(ticker).records > 0;
+	}
+
+	public synchronized int size(String ticker) throws IOException {
+		return open(ticker).records;
+	}
+
+	/** Date of the newest stored bar, or 0 if there is none. */
+	public synchronized int getLastDate(String ticker) throws IOException {
+		return open(ticker).lastDate;
+	}
+
+	/**
+	 * Appends the bars of series dated after the newest stored bar, so
+	 * feeding overlapping downloads is harmless, and returns how many were
+	 * written. The new bars must be in increasing date order.
+	 */
+	public synchronized int append(String ticker, PriceSeries series) throws IOException {
+		Ticker t = open(ticker);
+		int[] dates = series.getDates();
+		int first = 0;
+		while (first < dates.length && dates[first] <= t.lastDate) {
+			first++;
+		}
+		int n = dates.length - first;
+		if (n == 0) {
+			return 0;
+		}
+		for (int i = first; i < dates.length; i++) {
+			if (dates[i] <= 0 || (i > first && dates[i] <= dates[i - 1])) {
+				throw new IllegalArgumentException("Bar " + i + " is undated or out of order: " + dates[i]);
+			}
+		}
+		if (!t.log.exists()) {
+			create(t);
+			tickers.put(fileName(ticker), t);
+		}
+
+		ByteBuffer records = ByteBuffer.allocate(n * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = first; i < dates.length; i++) {
+			records.putInt(dates[i]);
+			for (int c = 0; c < PriceSeries.COLUMNS; c++) {
+				records.putDouble(series.getColumn(c)[i]);
+			}
+		}
+		records.flip();
+
+		int entries = 0;
+		ByteBuffer entry = ByteBuffer.allocate((n / INDEX_INTERVAL + 1) * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (int r = t.records; r < t.records + n; r++) {
+			if (r % INDEX_INTERVAL == 0) {
+				entry.putInt(dates[first + r - t.records]).putInt(r);
+				entries++;
+			}
+		}
+		entry.flip();
+
+		// The log is written before the index, so the index never points past it
+		write(t.log, HEADER_BYTES + (long) t.records * RECORD_BYTES, records);
+		write(t.index, (long) t.indexDates.size() * INDEX_ENTRY_BYTES, entry);
+		for (int e = 0; e < entries; e++) {
+			t.indexDates.add(entry.getInt(e * INDEX_ENTRY_BYTES));
+			t.indexRecords.add(entry.getInt(e * INDEX_ENTRY_BYTES + 4));
+		}
+		t.records += n;
+		t.lastDate = dates[dates.length - 1];
+		return n;
+	}
+
+	/** Parses a CSV stream with CsvSeriesParser and appends its bars; the stream is not closed. */
+	public int importCsv(String ticker, InputStream csv) throws IOException {
+		return append(ticker, CsvSeriesParser.parse(csv));
+	}
+
+	/** Bars dated from fromDate to toDate inclusive, both yyyymmdd. */
+	public synchronized PriceSeries read(String ticker, int fromDate, int toDate) throws IOException {
+		Ticker t = open(ticker);
+		// Start at the last indexed record dated no later than fromDate
+		int lo = 0, hi = t.indexDates.size() - 1, start = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (t.indexDates.get(mid) <= fromDate) {
+				start = t.indexRecords.get(mid);
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		IntArray dates = new IntArray();
+		DoubleArray[] columns = new DoubleArray[PriceSeries.COLUMNS];
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = new DoubleArray();
+		}
+		if (start < t.records) {
+			RandomAccessFile raf = new RandomAccessFile(t.log, "r");
+			try {
+				long offset = HEADER_BYTES + (long) start * RECORD_BYTES;
+				ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset,
+						(long) (t.records - start) * RECORD_BYTES);
+				mapped.order(ByteOrder.LITTLE_ENDIAN);
+				while (mapped.hasRemaining()) {
+					int date = mapped.getInt();
+					if (date > toDate) {
+						break;
+					}
+					if (date < fromDate) {
+						mapped.position(mapped.position() + RECORD_BYTES - 4);
+						continue;
+					}
+					dates.add(date);
+					for (int c = 0; c < columns.length; c++) {
+						columns[c].add(mapped.getDouble());
+					}
+				}
+			} finally {
+				raf.close();
+			}
+		}
+		return new PriceSeries(dates.toArray(),
+				columns[PriceSeries.OPEN].toArray(),
+				columns[PriceSeries.HIGH].toArray(),
+				columns[PriceSeries.LOW].toArray(),
+				columns[PriceSeries.CLOSE].toArray(),
+				columns[PriceSeries.VOLUME].toArray());
+	}
+
+	/**
+	 * State of ticker, read from disk the first time. A ticker with no log
+	 * gets an empty state that is not kept, so lookups never create files.
+	 */
+	private Ticker open(String ticker) throws IOException {
+		String name = fileName(ticker);
+		Ticker t = tickers.get(name);
+		if (t != null) {
+			return t;
+		}
+		t = new Ticker(new File(directory, name + ".bars"), new File(directory, name + ".idx"));
+		if (!t.log.exists()) {
+			return t;
+		}
+		RandomAccessFile raf = new RandomAccessFile(t.log, "r");
+		try {
+			long length = raf.length();
+			if (length < HEADER_BYTES || Integer.reverseBytes(raf.readInt()) != MAGIC) {
+				throw new IOException("Not a bar log: " + t.log);
+			}
+			if (Short.reverseBytes(raf.readShort()) != VERSION) {
+				throw new IOException("Unsupported bar log version in " + t.log);
+			}
+			// A trailing partial record is the remains of an interrupted append
+			t.records = (int) ((length - HEADER_BYTES) / RECORD_BYTES);
+			if (t.records > 0) {
+				raf.seek(HEADER_BYTES + (long) (t.records - 1) * RECORD_BYTES);
+				t.lastDate = Integer.reverseBytes(raf.readInt());
+			}
+		} finally {
+			raf.close();
+		}
+		readIndex(t);
+		tickers.put(name, t);
+		return t;
+	}
+
+	/** Writes the header of a new log and an empty index. */
+	private void create(Ticker t) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_BYTES);
+		header.flip();
+		write(t.log, 0, header);
+		write(t.index, 0, ByteBuffer.allocate(0));
+	}
+
+	private static void readIndex(Ticker t) throws IOException {
+		if (!t.index.exists()) {
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(t.index, "r");
+		try {
+			int entries = (int) (raf.length() / INDEX_ENTRY_BYTES);
+			ByteBuffer buffer = ByteBuffer.allocate(entries * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			FileChannel channel = raf.getChannel();
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+			}
+			buffer.flip();
+			for (int e = 0; e < entries; e++) {
+				int date = buffer.getInt();
+				int record = buffer.getInt();
+				// Entries past the log belong to an append that did not finish
+				if (record >= t.records) {
+					break;
+				}
+				t.indexDates.add(date);
+				t.indexRecords.add(record);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Writes buffer at position and cuts the file off after it. */
+	private static void write(File file, long position, ByteBuffer buffer) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.position(position);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.truncate(channel.position());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Whether ticker can name a stored series: letters, digits, '.', '-' or '^'. */
+	public static boolean isValidTicker(String ticker) {
+		String name = ticker.trim();
+		if (name.length() == 0 || name.charAt(0) == '.') {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = Character.toUpperCase(name.charAt(i));
+			if (!(c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '^')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String fileName(String ticker) {
+		if (!isValidTicker(ticker)) {
+			throw new IllegalArgumentException("Not a ticker: " + ticker);
+		}
+		return ticker.trim().toUpperCase();
+	}
+
+}
@@ -0,0 +1,73 @@
+package hophacks.JHU.foreknown;
+
+/**
+ * Table-driven standard normal sampler (Marsaglia and Tsang's ziggurat,
+ * in the 128-layer form given by Doornik). About 99% of samples cost one
+ * 64-bit draw, a multiply and a compare; only the rare wedge and tail
+ * samples touch exp or log. Nothing is allocated after class loading.
+ */
+final class Ziggurat {
+
+	private static final int LAYERS = 128;
+	private static final double R = 3.442619855899;
+	private static final double V = 9.91256303526217e-3;
+
+	// X[i] is the right edge of layer i, RATIO[i] = X[i + 1] / X[i]
+	private static final double[] X = new double[LAYERS + 1];
+	private static final double[] RATIO = new double[LAYERS];
+
+	static {
+		double f = Math.exp(-0.5 * R * R);
+		X[0] = V / f;
+		X[1] = R;
+		X[LAYERS] = 0;
+		for (int i = 2; i < LAYERS; i++) {
+			X[i] = Math.sqrt(-2 * Math.log(V / X[i - 1] + f));
+			f = Math.exp(-0.5 * X[i] * X[i]);
+		}
+		for (int i = 0; i < LAYERS; i++) {
+			RATIO[i] = X[i + 1] / X[i];
+		}
+	}
+
+	private Ziggurat() {
+	}
+
+	static double next(RandomStream r) {
+		for (;;) {
+			// Low 7 bits pick the layer, the top 53 give a uniform in [-1, 1)
+			long bits = r.nextLong();
+			int i = (int) (bits & (LAYERS - 1));
+			double u = (bits >>> 11) * 0x1.0p-52 - 1;
+
+			if (Math.abs(u) < RATIO[i]) {
+				return u * X[i];
+			}
+			if (i == 0) {
+				return tail(r, u < 0);
+			}
+			double x = u * X[i];
+			double f0 = Math.exp(-0.5 * (X[i] * X[i] - x * x));
+			double f1 = Math.exp(-0.5 * (X[i + 1] * X[i + 1] - x * x));
+			if (f1 + r.nextDouble() * (f0 - f1) < 1.0) {
+				return x;
+			}
+		}
+	}
+
+	static void fill(RandomStream r, double[] out, int off, int len) {
+		for (int end = off + len; off < end; off++) {
+			out[off] = next(r);
+		}
+	}
+
+	private static double tail(RandomStream r, boolean negative) {
+		double x, y;
+		do {
+			x = Math.log(1 - r.nextDouble()) / R;
+			y = Math.log(1 - r.nextDouble());
+		} while (-2 * y < x * x);
+		return negative ? x - R : R - x;
+	}
+
+}
@@ -1,33 +1,244 @@
 package hophacks.JHU.foreknown;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
 //Credits to Ankit Srivastava for the baseline code.
 
+/**
+ * Line chart of a series whose tail, from colorSwitch on, is a forecast.
+ *
+ * Points are projected to pixels only when the data, the window or the
+ * view size changes, and axis labels are formatted only when the data or
+ * the window changes, so a redraw allocates nothing. Longer series are
+ * first thinned to about two points per pixel column, keeping every peak
+ * and trough: the series from its MinMaxPyramid, the short forecast bands
+ * by MinMaxDownsampler.
+ * Segments are packed as x0, y0, x1, y1 runs for Canvas.drawLines, so each
+ * part of the chart is a single draw call and the cost of a frame follows
+ * the view width, not the series length.
+ *
+ * Dragging pans and pinching zooms the time axis; a double tap shows the
+ * whole series again. Only points inside the visible window are projected,
+ * the x labels span that window, and the y axis stays at its left edge
+ * when its usual place is scrolled out of view.
+ *
+ * The background, history and axes are drawn once into an offscreen bitmap,
+ * redrawn only when the size, the visible window, the axis ranges or the
+ * history change. A frame copies that layer and draws just the forecast
+ * and its bands over it, so refining the forecast leaves the rest alone.
+ * The y range is rounded out to whole steps and only grows while the
+ * history stays the same, so narrower or slightly wider bands keep it.
+ * While a finger pans or zooms the window moves every frame, so the chart
+ * is drawn straight to the screen and the layer rebuilt once it lifts.
+ */
 public class plot2d extends View {
 
+	//Automatic axes markings, modify n to control the number of axes labels
+	private static final int LABELS = 3;
+
 	private Paint paint;
 	private float[] xvalues,yvalues;
+	private float[] lowerBand,upperBand;
 	private float maxx,maxy,minx,miny,locxAxis,locyAxis;
 	private int vectorLength;
 	private int axes = 1;
-	private static int colorSwitch;
+	private int colorSwitch;
+	private MinMaxPyramid pyramid;
+
+	// Visible x range; follows the data until the user pans or zooms
+	private float viewMin, viewMax;
+	private boolean zoomed, gesturing;
+	private final ScaleGestureDetector scaleDetector;
+	private final GestureDetector panDetector;
+
+	// Screen coordinates, y already flipped, valid while projected is true
+	private boolean projected;
+	private int[] selected = new int[0];
+	private float[] lines = new float[0], lowerLines = new float[0], upperLines = new float[0];
+	private int lineCount, splitCount, lowerCount, upperCount;
+	private float xAxisPixel, yAxisPixel;
+
+	// Static layer of everything but the forecast, valid while layerValid is true
+	private Bitmap layer;
+	private Canvas layerCanvas;
+	private boolean layerValid;
+
+	// Label text follows the data and the window; label positions follow the size too
+	private final String[] xLabels = new String[LABELS + 1], yLabels = new String[LABELS + 1];
+	private final float[] xLabelValues = new float[LABELS + 1], yLabelValues = new float[LABELS + 1];
+	private final float[] xLabelPixels = new float[LABELS + 1], yLabelPixels = new float[LABELS + 1];
 	
 	public plot2d(Context context, float[] xvalues, float[] yvalues, int axes, int colorIn) {
 		super(context);
+		this.axes=axes;
+		paint = new Paint();
+		paint.setStrokeWidth(2);
+		paint.setTextAlign(Paint.Align.CENTER);
+		paint.setTextSize(20.0f);
+		scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+			@Override
+			public boolean onScale(ScaleGestureDetector detector) {
+				float focus = toData(detector.getFocusX());
+				float scale = detector.getScaleFactor();
+				gesturing = true;
+				setViewport(focus - (focus - viewMin) / scale, focus + (viewMax - focus) / scale);
+				return true;
+			}
+		});
+		panDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+			@Override
+			public boolean onDown(MotionEvent e) {
+				return true;
+			}
+
+			@Override
+			public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+				float shift = toData(distanceX) - toData(0);
+				gesturing = true;
+				setViewport(viewMin + shift, viewMax + shift);
+				return true;
+			}
+
+			@Override
+			public boolean onDoubleTap(MotionEvent e) {
+				zoomed = false;
+				setViewport(minx, maxx);
+				return true;
+			}
+		});
+
+		setData(xvalues, yvalues, colorIn);
+	}
+
+	/** Replaces the plotted series and redraws. */
+	public void setData(float[] xvalues, float[] yvalues, int colorIn) {
+		boolean historyChanged = colorIn != colorSwitch || xvalues.length != vectorLength
+				|| !samePrefix(this.xvalues, xvalues, colorIn) || !samePrefix(this.yvalues, yvalues, colorIn);
+		if (historyChanged) {
+			layerValid = false;
+		}
 		this.xvalues=xvalues;
 		this.yvalues=yvalues;
-		this.axes=axes;
 		this.colorSwitch=colorIn;
 		vectorLength = xvalues.length;
-		paint = new Paint();
+		pyramid = new MinMaxPyramid(yvalues);
+		dataChanged(historyChanged);
+	}
 
+	/**
+	 * Draws a band around the forecast as two lines, point i of each at
+	 * xvalues[colorSwitch - 1 + i] so they can start from the last known
+	 * price. Pass nulls to remove it.
+	 */
+	public void setBands(float[] lower, float[] upper) {
+		this.lowerBand=lower;
+		this.upperBand=upper;
+		dataChanged(false);
+	}
+
+	private void dataChanged(boolean historyChanged) {
+		float oldMinx = minx, oldMaxx = maxx, oldMiny = miny, oldMaxy = maxy;
 		getAxes(xvalues, yvalues);
-		
+		// Bands that still fit keep the old y range, and with it the layer
+		if (!historyChanged && miny >= oldMiny && maxy <= oldMaxy) {
+			miny = oldMiny;
+			maxy = oldMaxy;
+		}
+		placeAxes();
+		if (minx != oldMinx || maxx != oldMaxx || miny != oldMiny || maxy != oldMaxy) {
+			layerValid = false;
+		}
+		makeYLabels();
+		if (zoomed) {
+			setViewport(viewMin, viewMax);
+		} else {
+			setWindow(minx, maxx);
+		}
+		projected = false;
+		invalidate();
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		// Both detectors see every event, so a pinch can follow a drag
+		boolean handled = scaleDetector.onTouchEvent(event);
+		handled |= panDetector.onTouchEvent(event);
+		int action = event.getAction() & MotionEvent.ACTION_MASK;
+		if (gesturing && (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)) {
+			gesturing = false;
+			invalidate();
+		}
+		return handled || super.onTouchEvent(event);
+	}
+
+	/** Shows min to max on the x axis, kept within the data and to at least a few points. */
+	private void setViewport(float min, float max) {
+		float full = maxx - minx;
+		float span = Math.min(Math.max(max - min, full * 16 / Math.max(vectorLength, 16)), full);
+		min = Math.min(Math.max(min, minx), maxx - span);
+		zoomed = span < full;
+		setWindow(min, min + span);
+	}
+
+	private void setWindow(float min, float max) {
+		if (min != viewMin || max != viewMax) {
+			layerValid = false;
+		}
+		viewMin = min;
+		viewMax = max;
+		makeXLabels();
+		projected = false;
+		invalidate();
+	}
+
+	/** Whether a and b, either possibly null, agree in their first n values. */
+	private static boolean samePrefix(float[] a, float[] b, int n) {
+		if (a == null || b == null || a.length < n || b.length < n) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** The x value drawn at pixel column px, the inverse of the x projection. */
+	private float toData(float px) {
+		float width = getWidth();
+		return viewMin + (px - .1f * width) / (.8f * width) * (viewMax - viewMin);
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		projected = false;
+		// The next onDraw makes a layer of the new size
+		releaseLayer();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		releaseLayer();
+	}
+
+	private void releaseLayer() {
+		if (layer != null) {
+			layer.recycle();
+			layer = null;
+			layerCanvas = null;
+		}
+		layerValid = false;
 	}
 
 	@Override
@@ -35,61 +246,174 @@ public class plot2d extends View {
 		
 		float canvasHeight = getHeight();
 		float canvasWidth = getWidth();
-		int[] xvaluesInPixels = toPixel(canvasWidth, minx, maxx, xvalues); 
-		int[] yvaluesInPixels = toPixel(canvasHeight, miny, maxy, yvalues);
-		int locxAxisInPixels = toPixelInt(canvasHeight, miny, maxy, locxAxis);
-		int locyAxisInPixels = toPixelInt(canvasWidth, minx, maxx, locyAxis);
-		String xAxis = "x-axis";
-		String yAxis = "y-axis";
-		int color = 0;
+		if (!projected) {
+			project(canvasWidth, canvasHeight);
+		}
 
-		paint.setStrokeWidth(2);
-		canvas.drawARGB(255, 255, 255, 255);
-		for (int i = 0; i < vectorLength-1; i++, color++) {
-			if(color < colorSwitch)
-				paint.setColor(Color.RED);
-			else
-				paint.setColor(Color.BLUE);
-			canvas.drawLine(xvaluesInPixels[i],canvasHeight-yvaluesInPixels[i],xvaluesInPixels[i+1],canvasHeight-yvaluesInPixels[i+1],paint);
+		// The segment into the forecast moves with it, so it is not part of the layer
+		int staticCount = splitCount < lineCount ? Math.max(splitCount - 4, 0) : splitCount;
+		// Made here, not on a size change, so it comes back after a detach too
+		if (layer == null && !gesturing && canvasWidth > 0 && canvasHeight > 0) {
+			// The layer is opaque, so 16 bits a pixel do
+			layer = Bitmap.createBitmap((int) canvasWidth, (int) canvasHeight, Bitmap.Config.RGB_565);
+			layerCanvas = new Canvas(layer);
+		}
+		if (layer == null || gesturing) {
+			drawStatic(canvas, canvasWidth, canvasHeight, staticCount);
+		} else {
+			if (!layerValid) {
+				drawStatic(layerCanvas, canvasWidth, canvasHeight, staticCount);
+				layerValid = true;
+			}
+			canvas.drawBitmap(layer, 0, 0, null);
+		}
+
+		canvas.save();
+		canvas.clipRect(.1f*canvasWidth, 0, .9f*canvasWidth, canvasHeight);
+		paint.setColor(Color.RED);
+		canvas.drawLines(lines, staticCount, splitCount - staticCount, paint);
+		paint.setColor(Color.BLUE);
+		canvas.drawLines(lines, splitCount, lineCount - splitCount, paint);
+		
+		if (lowerBand != null) {
+			paint.setColor(Color.LTGRAY);
+			canvas.drawLines(lowerLines, 0, lowerCount, paint);
+			canvas.drawLines(upperLines, 0, upperCount, paint);
 		}
+		canvas.restore();
 		
+	}
+
+	/** Draws the background, the first count values of history lines, and the axes. */
+	private void drawStatic(Canvas canvas, float canvasWidth, float canvasHeight, int count) {
+		canvas.drawARGB(255, 255, 255, 255);
+		// The segments reaching in from just outside the window stop at its edges
+		canvas.save();
+		canvas.clipRect(.1f*canvasWidth, 0, .9f*canvasWidth, canvasHeight);
+		paint.setColor(Color.RED);
+		canvas.drawLines(lines, 0, count, paint);
+		canvas.restore();
 		
 		paint.setColor(Color.BLACK);
-		canvas.drawLine(0,canvasHeight-locxAxisInPixels,canvasWidth,canvasHeight-locxAxisInPixels,paint);
-		canvas.drawLine(locyAxisInPixels,0,locyAxisInPixels,canvasHeight,paint);
+		canvas.drawLine(0,xAxisPixel,canvasWidth,xAxisPixel,paint);
+		canvas.drawLine(yAxisPixel,0,yAxisPixel,canvasHeight,paint);
 		
-		//Automatic axes markings, modify n to control the number of axes labels
 		if (axes!=0){
-			float temp = 0.0f;
-			int n=3;
-			paint.setTextAlign(Paint.Align.CENTER);
-			paint.setTextSize(20.0f);
-			for (int i=1;i<=n;i++){
-				temp = Math.round(10*(minx+(i-1)*(maxx-minx)/n))/10;
-				canvas.drawText(""+temp, (float)toPixelInt(canvasWidth, minx, maxx, temp),canvasHeight-locxAxisInPixels+20, paint);
-				temp = Math.round(10*(miny+(i-1)*(maxy-miny)/n))/10;
-				canvas.drawText(""+temp, locyAxisInPixels+20,canvasHeight-(float)toPixelInt(canvasHeight, miny, maxy, temp), paint);
+			for (int i=0;i<=LABELS;i++){
+				canvas.drawText(xLabels[i], xLabelPixels[i], xAxisPixel+20, paint);
+				canvas.drawText(yLabels[i], yAxisPixel+20, yLabelPixels[i], paint);
 			}
-			canvas.drawText(""+maxx, (float)toPixelInt(canvasWidth, minx, maxx, maxx),canvasHeight-locxAxisInPixels+20, paint);
-			canvas.drawText(""+maxy, locyAxisInPixels+20,canvasHeight-(float)toPixelInt(canvasHeight, miny, maxy, maxy), paint);
-			//canvas.drawText(xAxis, canvasWidth/2,canvasHeight-locxAxisInPixels+45, paint);
-			//canvas.drawText(yAxis, locyAxisInPixels-40,canvasHeight/2, paint);
 		}
-		
-		
 	}
 	
-	private int[] toPixel(float pixels, float min, float max, float[] value) {
-		
-		double[] p = new double[value.length];
-		int[] pint = new int[value.length];
-		
-		for (int i = 0; i < value.length; i++) {
-			p[i] = .1*pixels+((value[i]-min)/(max-min))*.8*pixels;
-			pint[i] = (int)p[i];
+	/**
+	 * Projects the points in the visible window, plus one either side so
+	 * lines run to its edges, and every label, for a view of the given size.
+	 */
+	private void project(float canvasWidth, float canvasHeight) {
+		int columns = Math.max((int) canvasWidth, 1);
+		int capacity = Math.max(MinMaxPyramid.capacity(columns), MinMaxDownsampler.capacity(columns));
+		if (selected.length < 2 * capacity) {
+			selected = new int[2 * capacity];
 		}
-		
-		return (pint);
+		int from = Math.max(lastAtOrBefore(viewMin), 0);
+		int to = Math.min(lastAtOrBefore(viewMax) + 2, vectorLength);
+
+		// History and forecast are thinned apart, so the segment joining them stays
+		int split = Math.min(Math.max(colorSwitch, 0), vectorLength);
+		int historyPoints = pyramid.select(from, Math.min(split, to), columns, selected, 0);
+		int points = pyramid.select(Math.max(split, from), to, columns, selected, historyPoints);
+		lines = toLines(xvalues, 0, yvalues, selected, points, canvasWidth, canvasHeight, lines);
+		lineCount = 4 * Math.max(points - 1, 0);
+		// Segment k joins kept points k and k + 1; those from history points are red
+		splitCount = Math.min(4 * historyPoints, lineCount);
+
+		if (lowerBand != null) {
+			int start = Math.max(colorSwitch - 1, 0);
+			int bandFrom = Math.max(from - start, 0);
+			int bandTo = Math.max(Math.min(Math.min(lowerBand.length, vectorLength - start), to - start), bandFrom);
+			points = MinMaxDownsampler.select(xvalues, start, lowerBand, bandFrom, bandTo, viewMin, viewMax, columns, selected, 0);
+			lowerLines = toLines(xvalues, start, lowerBand, selected, points, canvasWidth, canvasHeight, lowerLines);
+			lowerCount = 4 * Math.max(points - 1, 0);
+			points = MinMaxDownsampler.select(xvalues, start, upperBand, bandFrom, bandTo, viewMin, viewMax, columns, selected, 0);
+			upperLines = toLines(xvalues, start, upperBand, selected, points, canvasWidth, canvasHeight, upperLines);
+			upperCount = 4 * Math.max(points - 1, 0);
+		}
+		xAxisPixel = canvasHeight-toPixelInt(canvasHeight, miny, maxy, locxAxis);
+		float yAxisValue = locyAxis < viewMin || locyAxis > viewMax ? viewMin : locyAxis;
+		yAxisPixel = toPixelInt(canvasWidth, viewMin, viewMax, yAxisValue);
+		for (int i=0;i<=LABELS;i++){
+			xLabelPixels[i] = toPixelInt(canvasWidth, viewMin, viewMax, xLabelValues[i]);
+			yLabelPixels[i] = canvasHeight-toPixelInt(canvasHeight, miny, maxy, yLabelValues[i]);
+		}
+		projected = true;
+	}
+
+	/** Formats the x labels: LABELS even steps across the visible window, then its end. */
+	private void makeXLabels() {
+		float temp = 0.0f;
+		for (int i=1;i<=LABELS;i++){
+			temp = Math.round(10*(viewMin+(i-1)*(viewMax-viewMin)/LABELS))/10;
+			xLabelValues[i-1] = temp;
+			xLabels[i-1] = ""+temp;
+		}
+		xLabelValues[LABELS] = viewMax;
+		xLabels[LABELS] = ""+viewMax;
+	}
+
+	/** Formats the y labels: LABELS even steps from the minimum, then the maximum. */
+	private void makeYLabels() {
+		float temp = 0.0f;
+		for (int i=1;i<=LABELS;i++){
+			temp = Math.round(10*(miny+(i-1)*(maxy-miny)/LABELS))/10;
+			yLabelValues[i-1] = temp;
+			yLabels[i-1] = ""+temp;
+		}
+		yLabelValues[LABELS] = maxy;
+		yLabels[LABELS] = ""+maxy;
+	}
+	
+	/**
+	 * Projects the points listed in points[0..count) and packs the segments
+	 * joining them into out as x0, y0, x1, y1 runs. Point i lies at
+	 * x[xFrom + i], y[i]. out only grows, so it is reused from frame to frame.
+	 */
+	private float[] toLines(float[] x, int xFrom, float[] y, int[] points, int count,
+			float canvasWidth, float canvasHeight, float[] out) {
+		int length = 4 * Math.max(count - 1, 0);
+		if (out.length < length) {
+			out = new float[length];
+		}
+		float previousX = 0, previousY = 0;
+		for (int k = 0, j = 0; k < count; k++) {
+			int i = points[k];
+			float px = toPixelInt(canvasWidth, viewMin, viewMax, x[xFrom + i]);
+			float py = canvasHeight - toPixelInt(canvasHeight, miny, maxy, y[i]);
+			if (k > 0) {
+				out[j++] = previousX;
+				out[j++] = previousY;
+				out[j++] = px;
+				out[j++] = py;
+			}
+			previousX = px;
+			previousY = py;
+		}
+		return out;
+	}
+	
+	/** Index of the last point with x at or before value, or -1 if there is none. */
+	private int lastAtOrBefore(float value) {
+		int lo = 0, hi = vectorLength - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (xvalues[mid] <= value) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
 	}
 	
 	private void getAxes(float[] xvalues, float[] yvalues) {
@@ -98,7 +422,29 @@ public class plot2d extends View {
 		miny=getMin(yvalues);
 		maxx=getMax(xvalues);
 		maxy=getMax(yvalues);
-		
+		if (lowerBand != null) {
+			miny=Math.min(miny, getMin(lowerBand));
+			maxy=Math.max(maxy, getMax(upperBand));
+		}
+		roundRange();
+	}
+
+	/**
+	 * Widens miny..maxy out to whole steps of half a power of ten, 2 to 20
+	 * of them, so small changes in the data seldom move the range.
+	 */
+	private void roundRange() {
+		float range = maxy - miny;
+		if (!(range > 0)) {
+			return;
+		}
+		double step = Math.pow(10, Math.floor(Math.log10(range))) / 2;
+		miny = (float) (Math.floor(miny / step) * step);
+		maxy = (float) (Math.ceil(maxy / step) * step);
+	}
+
+	/** Puts each axis at zero, or at the edge of the data nearest it. */
+	private void placeAxes() {
 		if (minx>=0)
 			locyAxis=minx;
 		else if (minx<0 && maxx>=0)